@@ -0,0 +1,20 @@
+package com.jvcats.cli;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This interface is used to complete the arguments of an option, e.g. from a remote service.
+ */
+@FunctionalInterface
+public interface ArgumentCompleter {
+
+    /**
+     * Returns the candidates for the argument being typed. A completer that has the candidates at hand can return
+     * a completed future. The candidates are cached by the parser for the same command, option and prefix.
+     *
+     * @param prefix the part of the argument before the cursor.
+     * @return the candidates starting with the prefix.
+     */
+    CompletableFuture<List<String>> complete(String prefix);
+}
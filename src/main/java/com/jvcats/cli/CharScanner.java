@@ -0,0 +1,71 @@
+package com.jvcats.cli;
+
+import java.util.List;
+
+/**
+ * The char scanner finds the next character of a line that the tokenizer has to look at, so that the characters in between can be copied at once.
+ * The special characters outside quotes are the delimiter, the end of statement, the escape, the quotes, the block characters,
+ * the first characters of the operators, the start of variable references, spaces and new lines.
+ * Inside quotes only the escape, the quotes and new lines are special.
+ */
+interface CharScanner {
+
+    /**
+     * Finds the next special character.
+     *
+     * @param line     The line to scan.
+     * @param from     The index to start from.
+     * @param inQuotes Whether the scanner is inside quotes.
+     * @return The index of the next special character, or the length of the line if there is none.
+     */
+    int next(String line, int from, boolean inQuotes);
+
+    /**
+     * Creates a scanner for the parser configuration. The vectorized scanner is used if it is enabled by the configuration,
+     * it was compiled with the vector profile and the jdk.incubator.vector module is available, otherwise the scalar scanner is used.
+     *
+     * @param parserConfig The parser configuration.
+     * @return The scanner.
+     */
+    static CharScanner create(ParserConfig parserConfig) {
+        char[] outside = specialChars(parserConfig, false);
+        char[] inside = specialChars(parserConfig, true);
+        if (parserConfig.vectorizedScanning() && VectorSupport.AVAILABLE) {
+            try {
+                return (CharScanner) Class.forName("com.jvcats.cli.VectorCharScanner")
+                        .getDeclaredConstructor(char[].class, char[].class)
+                        .newInstance(outside, inside);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall back to the scalar scanner
+            }
+        }
+        return new TableCharScanner(outside, inside);
+    }
+
+    private static char[] specialChars(ParserConfig parserConfig, boolean inQuotes) {
+        StringBuilder chars = new StringBuilder("\n\r");
+        chars.append(parserConfig.escape()).append(parserConfig.quotes());
+        if (!inQuotes) {
+            chars.append(' ').append(parserConfig.delimiter()).append(parserConfig.blockChars());
+            if (parserConfig.endOfStatement() != ParserConfig.NO_EOS) {
+                chars.append(parserConfig.endOfStatement());
+            }
+            for (String operator : List.of(parserConfig.andOperator(), parserConfig.orOperator())) {
+                if (!operator.isEmpty()) {
+                    chars.append(operator.charAt(0));
+                }
+            }
+            if (parserConfig.variableReferences()) {
+                chars.append('$');
+            }
+        }
+        return chars.chars().distinct().collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append).toString().toCharArray();
+    }
+
+    final class VectorSupport {
+        static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+        private VectorSupport() {
+        }
+    }
+}
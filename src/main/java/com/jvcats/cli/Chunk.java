@@ -0,0 +1,160 @@
+package com.jvcats.cli;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This class represents a range of lines tokenized independently of the other lines, together with the tokenizer state at its end.
+ * The chunks of a script are tokenized concurrently assuming that each one starts outside of any statement or quote.
+ * If the previous chunk ends inside a statement or a quote under that assumption, the chunk is also tokenized from that state,
+ * so a statement or a quote crossing the boundary does not hold up the chunks after it. A chunk whose start state matches
+ * neither is tokenized again with the actual state of the previous one, so the result is always the same as tokenizing
+ * the lines one after another.
+ */
+class Chunk {
+    static final int MIN_CHUNK_SIZE = 1024;
+    final int from;
+    final int to;
+    final List<String> remaining = new ArrayList<>();
+    private long[] remainingPositions = new long[0];
+    private Deque<Character> quotes = new ArrayDeque<>();
+
+    /**
+     * Tokenizes the lines of a chunk.
+     *
+     * @param <C> The type of the chunk.
+     */
+    @FunctionalInterface
+    interface Scanner<C extends Chunk> {
+
+        /**
+         * Tokenizes the lines in the range.
+         *
+         * @param from     The index of the first line.
+         * @param to       The index after the last line.
+         * @param previous The chunk to continue from, or null to start outside of any statement or quote.
+         * @return The tokenized chunk.
+         */
+        C scan(int from, int to, Chunk previous);
+    }
+
+    Chunk(int from, int to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Creates a chunk holding the current state of a tokenizer, so that the next chunk continues from it.
+     *
+     * @param tokenizer The tokenizer.
+     * @param remaining The unfinished statement of the tokenizer.
+     * @param line      The index after the last line tokenized.
+     * @return The chunk.
+     */
+    static Chunk of(Tokenizer tokenizer, List<String> remaining, int line) {
+        Chunk chunk = new Chunk(line, line);
+        chunk.remaining.addAll(remaining);
+        chunk.finish(tokenizer);
+        return chunk;
+    }
+
+    boolean isClean() {
+        return remaining.isEmpty() && quotes.isEmpty();
+    }
+
+    Deque<Character> quotes() {
+        return quotes;
+    }
+
+    long remainingPosition(int index) {
+        return remainingPositions[index];
+    }
+
+    /**
+     * Sets up the tokenizer and the unfinished statement of this chunk to continue from the previous chunk.
+     *
+     * @param previous  The previous chunk, or null to start outside of any statement or quote.
+     * @param tokenizer The tokenizer for this chunk.
+     */
+    void continueFrom(Chunk previous, Tokenizer tokenizer) {
+        if (previous == null) {
+            return;
+        }
+        tokenizer.restoreQuoteState(previous.quotes);
+        for (int i = 0; i < previous.remaining.size(); i++) {
+            String token = previous.remaining.get(i);
+            remaining.add(token);
+            tokenizer.recordPosition(token, previous.remainingPositions[i]);
+        }
+    }
+
+    /**
+     * Records the state of the tokenizer at the end of this chunk.
+     *
+     * @param tokenizer The tokenizer for this chunk.
+     */
+    void finish(Tokenizer tokenizer) {
+        quotes = tokenizer.quoteState();
+        remainingPositions = new long[remaining.size()];
+        for (int i = 0; i < remaining.size(); i++) {
+            remainingPositions[i] = tokenizer.positionOf(remaining.get(i));
+        }
+    }
+
+    /**
+     * Tokenizes the lines in chunks on the pool.
+     *
+     * @param size    The number of lines.
+     * @param pool    The pool to tokenize the chunks on, or null to tokenize all lines as one chunk.
+     * @param start   The state to start from, or null to start outside of any statement or quote.
+     * @param scanner The scanner for the chunks.
+     * @param <C>     The type of the chunks.
+     * @return The chunks in the order of the lines.
+     */
+    static <C extends Chunk> List<C> scanAll(int size, ForkJoinPool pool, Chunk start, Scanner<C> scanner) {
+        List<C> chunks = new ArrayList<>();
+        if (pool == null || size <= MIN_CHUNK_SIZE) {
+            chunks.add(scanner.scan(0, size, start));
+            return chunks;
+        }
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, size / (pool.getParallelism() * 4) + 1);
+        List<ForkJoinTask<C>> tasks = new ArrayList<>();
+        // the chunks scanned from the state the speculated previous chunk ends in, null if it ends clean
+        List<ForkJoinTask<C>> continuations = new ArrayList<>();
+        for (int from = 0; from < size; from += chunkSize) {
+            int begin = from;
+            int end = Math.min(size, from + chunkSize);
+            // the state at the start of the first chunk is known
+            Chunk previous = from == 0 ? start : null;
+            ForkJoinTask<C> before = tasks.isEmpty() ? null : tasks.getLast();
+            tasks.add(pool.submit(() -> scanner.scan(begin, end, previous)));
+            continuations.add(before == null ? null : pool.submit(() -> {
+                C speculated = before.join();
+                return speculated.isClean() ? null : scanner.scan(begin, end, speculated);
+            }));
+        }
+        Chunk previous = start;
+        for (int i = 0; i < tasks.size(); i++) {
+            C chunk = tasks.get(i).join();
+            if (chunk.from > 0 && !previous.isClean()) {
+                if (hasSameState(previous, tasks.get(i - 1).join())) {
+                    // the previous chunk ends as speculated, so the chunk was already scanned from its state
+                    chunk = continuations.get(i).join();
+                } else {
+                    // the speculation failed, continue from the actual state of the previous chunk
+                    chunk = scanner.scan(chunk.from, chunk.to, previous);
+                }
+            }
+            chunks.add(chunk);
+            previous = chunk;
+        }
+        return chunks;
+    }
+
+    // a chunk is scanned only from the unfinished statement, its positions and the quotes of the previous one
+    private static boolean hasSameState(Chunk chunk, Chunk other) {
+        return chunk == other || (chunk.remaining.equals(other.remaining) && Arrays.equals(chunk.remainingPositions, other.remainingPositions)
+                && List.copyOf(chunk.quotes).equals(List.copyOf(other.quotes)));
+    }
+}
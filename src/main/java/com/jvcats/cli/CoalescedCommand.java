@@ -0,0 +1,172 @@
+package com.jvcats.cli;
+
+import com.jvcats.cli.cmd.Command;
+import com.jvcats.cli.cmd.RunCondition;
+import com.jvcats.cli.tree.Node;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A statement of an idempotent command, executed through a coalescer in place of the parsed statement.
+ * Identical statements of the same batch share the outcomes by key, so only the first of them is executed
+ * and the others get its outcome, i.e. they throw the same exception if it failed.
+ */
+class CoalescedCommand implements Command {
+    private final Command statement;
+    private final StatementKey key;
+    private final Duration window;
+    private final Coalescer coalescer;
+    private final Map<StatementKey, CompletableFuture<Void>> batch;
+
+    CoalescedCommand(Command statement, StatementKey key, Duration window, Coalescer coalescer, Map<StatementKey, CompletableFuture<Void>> batch) {
+        this.statement = statement;
+        this.key = key;
+        this.window = window;
+        this.coalescer = coalescer;
+        this.batch = batch;
+    }
+
+    Command getStatement() {
+        return statement;
+    }
+
+    @Override
+    public void execute() throws Exception {
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> first = batch.putIfAbsent(key, mine);
+        if (first != null) {
+            try {
+                first.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+            return;
+        }
+        try {
+            coalescer.execute(key, window, statement);
+            mine.complete(null);
+        } catch (Exception | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return statement.getName();
+    }
+
+    @Override
+    public RunCondition getCondition() {
+        return statement.getCondition();
+    }
+
+    @Override
+    public void setCondition(RunCondition condition) {
+        statement.setCondition(condition);
+    }
+
+    @Override
+    public void setName(String name) {
+        statement.setName(name);
+    }
+
+    @Override
+    public List<String> getOptions() {
+        return statement.getOptions();
+    }
+
+    @Override
+    public void addOption(String option) {
+        statement.addOption(option);
+    }
+
+    @Override
+    public void removeOption(String option) {
+        statement.removeOption(option);
+    }
+
+    @Override
+    public void clearOptions() {
+        statement.clearOptions();
+    }
+
+    @Override
+    public List<String> getArguments(String option) {
+        return statement.getArguments(option);
+    }
+
+    @Override
+    public void addArguments(String option, String... args) {
+        statement.addArguments(option, args);
+    }
+
+    @Override
+    public void removeArguments(String option, String... args) {
+        statement.removeArguments(option, args);
+    }
+
+    @Override
+    public void clearArguments(String option) {
+        statement.clearArguments(option);
+    }
+
+    @Override
+    public void addChild(Node node) {
+        statement.addChild(node);
+    }
+
+    @Override
+    public void addChild(int index, Node node) {
+        statement.addChild(index, node);
+    }
+
+    @Override
+    public List<Node> removeAllChildren() {
+        return statement.removeAllChildren();
+    }
+
+    @Override
+    public void removeChild(Node node) {
+        statement.removeChild(node);
+    }
+
+    @Override
+    public void removeChildren(Collection<? extends Node> nodes) {
+        statement.removeChildren(nodes);
+    }
+
+    @Override
+    public void sortChildren(Comparator<? super Node> comparator) {
+        statement.sortChildren(comparator);
+    }
+
+    @Override
+    public List<Node> getChildren() {
+        return statement.getChildren();
+    }
+
+    @Override
+    public void setParent(Node node) {
+        statement.setParent(node);
+    }
+
+    @Override
+    public Node getParent() {
+        return statement.getParent();
+    }
+
+    @Override
+    public String toString() {
+        return statement.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.jvcats.cli;
+
+import com.jvcats.cli.cmd.Command;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The coalescer executes identical statements once. A statement arriving while an identical one is executing waits for it,
+ * and one arriving within the coalescing window after it finished returns at once; both get the same outcome,
+ * i.e. they throw the same exception if it failed.
+ * A coalescer can be shared by parsers running on different threads.
+ */
+public class Coalescer {
+    private static final int SWEEP_INTERVAL = 1024;
+    private final Map<StatementKey, Execution> executions = new ConcurrentHashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private static final class Execution {
+        private final CompletableFuture<Void> outcome = new CompletableFuture<>();
+        private final long window;
+        private volatile long finishedAt;
+
+        private Execution(long window) {
+            this.window = window;
+        }
+
+        private boolean isShared(long now) {
+            return !outcome.isDone() || now - finishedAt < window;
+        }
+    }
+
+    /**
+     * Executes the statement unless an identical one is executing or finished within the window.
+     *
+     * @param key       The key of the statement.
+     * @param window    The coalescing window.
+     * @param statement The statement to execute.
+     * @return True if the statement was executed, false if the outcome of an identical statement was shared.
+     * @throws Exception If the statement, or the identical statement whose outcome is shared, failed.
+     */
+    public boolean execute(StatementKey key, Duration window, Command statement) throws Exception {
+        if (calls.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            sweep();
+        }
+        Execution mine = new Execution(window.toNanos());
+        Execution current = executions.compute(key, (k, previous) ->
+                previous != null && previous.isShared(System.nanoTime()) ? previous : mine);
+        if (current != mine) {
+            try {
+                current.outcome.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+            return false;
+        }
+        try {
+            statement.execute();
+            mine.finishedAt = System.nanoTime();
+            mine.outcome.complete(null);
+        } catch (Exception | Error e) {
+            mine.finishedAt = System.nanoTime();
+            mine.outcome.completeExceptionally(e);
+            throw e;
+        } finally {
+            if (mine.window <= 0) {
+                executions.remove(key, mine);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of executions kept for coalescing, including the ones whose window has passed but which are not removed yet.
+     *
+     * @return the number of executions.
+     */
+    public int size() {
+        return executions.size();
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        executions.values().removeIf(execution -> !execution.isShared(now));
+    }
+}
@@ -1,5 +1,8 @@
 package com.jvcats.cli;
 
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
 /**
  * This interface defines the configuration of a command.
  * One can implement this interface to customize the behavior of a command.
@@ -44,4 +47,60 @@ public interface CommandConfig {
         return false;
     }
 
+    /**
+     * Sets whether the options with the same priority should be executed concurrently.
+     * The options are still executed group by group in descending order of priority, and the next group starts after the previous one has finished.
+     * An option can wait for other options in its group by declaring dependencies on them.
+     * The default value is false, in which case all options are executed one by one.
+     *
+     * @return whether the options with the same priority should be executed concurrently.
+     */
+    default boolean concurrentOptions() {
+        return false;
+    }
+
+    /**
+     * Sets the executor used to run the options concurrently. It is only used if concurrentOptions() returns true.
+     * The default executor starts a virtual thread for each option.
+     *
+     * @return the executor for the options.
+     */
+    default Executor optionExecutor() {
+        return Thread.ofVirtual()::start;
+    }
+
+    /**
+     * Sets whether the command is idempotent. Identical statements of an idempotent command, with the same options and arguments,
+     * are executed once if they are in the same batch or arrive within the coalescing window, and all of them get the same outcome.
+     * Statements with children or with duplicate options are always executed. It only has an effect if a coalescer is set on the parser.
+     * The default value is false.
+     *
+     * @return whether the command is idempotent.
+     */
+    default boolean idempotent() {
+        return false;
+    }
+
+    /**
+     * Sets how long the outcome of an idempotent statement is shared with identical statements after its execution finished.
+     * Identical statements arriving while it is executing always wait for it and share its outcome.
+     * The default window is zero.
+     *
+     * @return the coalescing window.
+     */
+    default Duration coalescingWindow() {
+        return Duration.ZERO;
+    }
+
+    /**
+     * Sets how long a statement of the command may execute, including the statements of its block.
+     * A statement that takes longer is cancelled and reported as timed out. It is only enforced for executions started with executeAsync() of the parser.
+     * The default timeout is zero, which means no timeout.
+     *
+     * @return the timeout of a statement.
+     */
+    default Duration timeout() {
+        return Duration.ZERO;
+    }
+
 }
@@ -0,0 +1,30 @@
+package com.jvcats.cli;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation declares the main commands of a CommandProvider, so that the provider can be loaded lazily.
+ * Without this annotation, a provider found by ServiceLoader is instantiated and registered right away.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface CommandGroup {
+
+    /**
+     * Sets the main command names registered by the provider.
+     *
+     * @return the main command names.
+     */
+    String[] commands() default {};
+
+    /**
+     * Sets the prefix of the main command names registered by the provider, e.g. "git:".
+     * The default namespace is an empty string, which means no namespace is used.
+     *
+     * @return the namespace.
+     */
+    String namespace() default "";
+}
@@ -1,13 +1,29 @@
 package com.jvcats.cli;
 
+import com.jvcats.cli.admission.AdmissionController;
 import com.jvcats.cli.cmd.*;
 import com.jvcats.cli.config.DefaultCommandConfig;
 import com.jvcats.cli.config.DefaultParserConfig;
+import com.jvcats.cli.diag.Diagnostic;
+import com.jvcats.cli.diag.Diagnostics;
+import com.jvcats.cli.exec.Execution;
+import com.jvcats.cli.jfr.BuildEvent;
+import com.jvcats.cli.jfr.ResolveEvent;
+import com.jvcats.cli.journal.CommandJournal;
 import com.jvcats.cli.tree.BaseCommandFactory;
 import com.jvcats.cli.tree.CommandFactory;
 import com.jvcats.cli.tree.CommandTree;
+import com.jvcats.cli.tree.CompactCommandTree;
+import com.jvcats.cli.tree.Node;
+import com.jvcats.cli.tree.PersistentCommandTree;
+import com.jvcats.cli.var.VariableSource;
+import com.jvcats.cli.var.Variables;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 /**
  * The command parser is responsible for parsing command lines and running the appropriate command task.
@@ -17,9 +33,19 @@ public class CommandParser {
     private final ParserConfig parserConfig;
     private final List<String> remaining = new ArrayList<>();
     private final List<List<String>> commandsParts = new ArrayList<>();
-    private final Deque<Character> inQuotes = new ArrayDeque<>();
-    private final CommandTree commandTree = new CommandTree();
+    private final CommandTree commandTree;
     private final CommandFactory commandFactory;
+    private final Tokenizer tokenizer;
+    private final CompletionEngine completionEngine;
+    private final Macros macros;
+    private Diagnostics diagnostics;
+    private Coalescer coalescer;
+    private int lineNumber;
+    // the block structure is kept across lines until the tree is executed or cleared
+    private Command blockParent;
+    private Command lastCommand;
+    // the condition of the next statement, set by an operator
+    private RunCondition pendingCondition = RunCondition.ALWAYS;
 
     /**
      * Creates a new command parser with the given parser configuration.
@@ -45,10 +71,26 @@ public class CommandParser {
      */
     public CommandParser(ParserConfig parserConfig, CommandFactory commandFactory) {
         this.parserConfig = parserConfig;
-        if (!usingBlockStructure()) {
+        this.tokenizer = new Tokenizer(parserConfig);
+        this.completionEngine = new CompletionEngine(mainCommands, parserConfig);
+        this.macros = new Macros(mainCommands, parserConfig);
+        if (!usingBlockStructure() || usingOperators()) {
             registerNoOperationCommand();
         }
         this.commandFactory = commandFactory;
+        if (parserConfig.variableReferences()) {
+            mainCommands.setVariables(new Variables());
+        }
+        if (parserConfig.compactCommandTree() && parserConfig.persistentCommandTree()) {
+            throw new IllegalArgumentException("The command tree cannot be both compact and persistent");
+        }
+        if (parserConfig.compactCommandTree()) {
+            this.commandTree = new CompactCommandTree(commandFactory, mainCommands, parserConfig);
+        } else if (parserConfig.persistentCommandTree()) {
+            this.commandTree = new PersistentCommandTree(commandFactory, mainCommands, parserConfig);
+        } else {
+            this.commandTree = new CommandTree();
+        }
     }
 
     /**
@@ -60,6 +102,114 @@ public class CommandParser {
         return commandTree;
     }
 
+    /**
+     * Sets the diagnostics channel. When it is set, unknown commands and options are reported to it with their positions
+     * instead of being passed to handleIllegalCommand() and handleIllegalOption() of the parser configuration.
+     * The channel can be shared by parsers running on different threads.
+     *
+     * @param diagnostics The diagnostics channel, or null to use the parser configuration again.
+     */
+    public void setDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        // the positions of the tokens are only recorded when diagnostics are enabled
+        tokenizer.setTrackingPositions(diagnostics != null);
+    }
+
+    /**
+     * Returns the diagnostics channel.
+     *
+     * @return The diagnostics channel, or null if it is not set.
+     */
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Sets the command journal. When it is set, each statement is appended to it and committed when it starts to execute,
+     * after it was admitted and before its first task runs, so the statements skipped by an operator or an earlier failure,
+     * rejected by the admission controller or cancelled before they started are not journaled. The statements of detached trees and compiled programs
+     * are journaled as well. The journal can be shared by parsers running on different threads.
+     *
+     * @param journal The command journal, or null to execute without journaling.
+     */
+    public void setJournal(CommandJournal journal) {
+        mainCommands.setJournal(journal);
+    }
+
+    /**
+     * Returns the command journal.
+     *
+     * @return The command journal, or null if it is not set.
+     */
+    public CommandJournal getJournal() {
+        return mainCommands.getJournal();
+    }
+
+    /**
+     * Sets the coalescer. When it is set, identical statements of idempotent commands are executed once
+     * if they are in the same batch or arrive within the coalescing window of the command configuration.
+     * The coalescer can be shared by parsers running on different threads, and it is not used with a compact or persistent command tree.
+     *
+     * @param coalescer The coalescer, or null to execute every statement.
+     */
+    public void setCoalescer(Coalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * Returns the coalescer.
+     *
+     * @return The coalescer, or null if it is not set.
+     */
+    public Coalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Sets the admission controller. When it is set, the options of every statement are executed under a permit of the
+     * controller, which limits the statements executing at the same time per main command and in total. This also applies to
+     * commands detached from the parser and to options executed concurrently. The controller can be shared by parsers running on different threads.
+     *
+     * @param admissionController The admission controller, or null to execute without limits.
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        mainCommands.setAdmissionController(admissionController);
+    }
+
+    /**
+     * Returns the admission controller.
+     *
+     * @return The admission controller, or null if it is not set.
+     */
+    public AdmissionController getAdmissionController() {
+        return mainCommands.getAdmissionController();
+    }
+
+    /**
+     * Sets the source of the variables that are referenced in the arguments and not set by a command, e.g. VariableSource.environment().
+     * The variables are looked up when a task reads an argument, so the source can change between executions.
+     *
+     * @param source The source, or null to use only the variables set by commands.
+     * @throws IllegalStateException If variable references are not enabled by the parser configuration.
+     */
+    public void setVariableSource(VariableSource source) {
+        Variables variables = mainCommands.getVariables();
+        if (variables == null) {
+            throw new IllegalStateException("Variable references are not enabled by the parser configuration");
+        }
+        variables.setSource(source);
+    }
+
+    /**
+     * Returns the source of the variables.
+     *
+     * @return The source, or null if it is not set.
+     */
+    public VariableSource getVariableSource() {
+        Variables variables = mainCommands.getVariables();
+        return variables == null ? null : variables.getSource();
+    }
+
     /**
      * Reviews if the command line was complete.
      *
@@ -74,6 +224,7 @@ public class CommandParser {
      */
     public void clearRemainingCommand() {
         remaining.clear();
+        tokenizer.clearPositions();
     }
 
     /**
@@ -100,6 +251,56 @@ public class CommandParser {
         mainCommands.get(main).togglePriorityFreezing();
     }
 
+    /**
+     * Declares that the given option waits for the dependencies to finish before it runs.
+     * A dependency can only be an option with the same or a higher priority, since the options with a higher priority always run first.
+     * This is mostly useful when concurrentOptions() returns true for the main command.
+     *
+     * @param main         The main command name.
+     * @param option       The option name. If it is null or blank, it is set to the main option name.
+     * @param dependencies The names of the options to wait for.
+     * @throws IllegalArgumentException If a dependency is not registered, has a lower priority, or waits for the option itself.
+     */
+    public void addOptionDependencies(String main, String option, String... dependencies) {
+        MainCommand mainCommand = mainCommands.get(main);
+        if (option == null || option.isBlank()) {
+            option = mainCommand.getConfig().mainOptionName();
+        }
+        OptionAdapter optionAdapter = mainCommand.getOptions();
+        Option optionObj = optionAdapter.get(option);
+        Set<String> merged = new HashSet<>(optionObj.dependencies());
+        for (String dependency : dependencies) {
+            if (dependency == null || dependency.isBlank()) {
+                dependency = mainCommand.getConfig().mainOptionName();
+            }
+            if (optionAdapter.get(dependency).priority() < optionObj.priority()) {
+                throw new IllegalArgumentException("Option " + option + " cannot wait for option with lower priority: " + dependency);
+            }
+            merged.add(dependency);
+        }
+        if (reaches(optionAdapter, merged, optionObj, Collections.newSetFromMap(new IdentityHashMap<>()))) {
+            throw new IllegalArgumentException("Circular option dependency: " + option);
+        }
+        optionAdapter.replace(optionObj, new Option(optionObj.priority(), optionObj.task(), merged));
+    }
+
+    // an option registered under several names is the same instance, so the options are compared by identity
+    private static boolean reaches(OptionAdapter optionAdapter, Set<String> dependencies, Option target, Set<Option> visited) {
+        for (String dependency : dependencies) {
+            if (!optionAdapter.containsKey(dependency)) {
+                continue;
+            }
+            Option option = optionAdapter.get(dependency);
+            if (option == target) {
+                return true;
+            }
+            if (visited.add(option) && reaches(optionAdapter, option.dependencies(), target, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Registers a command with the given main, option name and task. If the option name is null or blank, it is set to the default option name.
      * If the task is null, it is set to an empty task.
@@ -192,6 +393,76 @@ public class CommandParser {
         }
     }
 
+    /**
+     * Registers a main command with its options already set up, the priorities of the options are used as they are.
+     * This is used by the registries generated from CliCommand and CliOption annotations.
+     *
+     * @param main        The main command name.
+     * @param mainCommand The main command with its configuration and options.
+     */
+    public void register(String main, MainCommand mainCommand) {
+        if (mainCommands.containsKey(main)) {
+            throw new IllegalArgumentException("Main command already registered: " + main);
+        }
+        mainCommands.put(main, mainCommand);
+    }
+
+    /**
+     * Registers a group of main commands that is loaded the first time one of them is parsed or looked up.
+     * The provider is only created at that time, and should register all of the given main commands.
+     *
+     * @param provider The supplier of the provider.
+     * @param mains    The main command names registered by the provider.
+     */
+    public void registerGroup(Supplier<? extends CommandProvider> provider, String... mains) {
+        registerGroup(provider, List.of(mains), null);
+    }
+
+    /**
+     * Registers a group of main commands that is loaded the first time a command starting with the namespace is parsed or looked up
+     * and is not registered yet. The provider is only created at that time.
+     *
+     * @param namespace The prefix of the main command names registered by the provider.
+     * @param provider  The supplier of the provider.
+     */
+    public void registerNamespace(String namespace, Supplier<? extends CommandProvider> provider) {
+        registerGroup(provider, List.of(), namespace);
+    }
+
+    /**
+     * Finds the command providers with ServiceLoader in the class loader of the current thread and registers them.
+     * The providers annotated with CommandGroup are registered as lazy groups, the other ones are instantiated and registered right away.
+     */
+    public void loadProviders() {
+        loadProviders(Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Finds the command providers with ServiceLoader in the given class loader and registers them.
+     * The providers annotated with CommandGroup are registered as lazy groups, the other ones are instantiated and registered right away.
+     *
+     * @param classLoader The class loader to find the providers in.
+     */
+    public void loadProviders(ClassLoader classLoader) {
+        for (ServiceLoader.Provider<CommandProvider> provider : ServiceLoader.load(CommandProvider.class, classLoader).stream().toList()) {
+            // the annotation is read from the class, so the provider is not instantiated yet
+            CommandGroup group = provider.type().getAnnotation(CommandGroup.class);
+            if (group == null) {
+                provider.get().register(this);
+            } else {
+                registerGroup(provider, List.of(group.commands()), group.namespace().isEmpty() ? null : group.namespace());
+            }
+        }
+    }
+
+    private void registerGroup(Supplier<? extends CommandProvider> provider, List<String> mains, String namespace) {
+        LazyGroup group = new LazyGroup(() -> provider.get().register(this));
+        mainCommands.putGroup(mains, group);
+        if (namespace != null) {
+            mainCommands.putNamespace(namespace, group);
+        }
+    }
+
     /**
      * Unregisters the command with the given main command and options.
      * If the options array is null or empty, only the main option is unregistered.
@@ -213,6 +484,32 @@ public class CommandParser {
         }
     }
 
+    /**
+     * Registers a macro, which is invoked like a main command and expands into the statements of its body, e.g. an alias of a command with some options.
+     * The body is tokenized and checked against the registered commands and macros once, so an invocation is expanded without parsing text again.
+     * The tokens $1, $2, ... of the body are replaced with the arguments of the invocation and the token $@ with all of them.
+     * Each line of the body is tokenized like a line passed to prepare(), and the last statement does not need to be ended.
+     * An operator before an invocation applies to the first statement of the body, and a block after it belongs to the last one.
+     * A registered command takes precedence over a macro with the same name.
+     *
+     * @param name  The name of the macro.
+     * @param lines The lines of the body.
+     * @throws IllegalArgumentException If the name is a registered command, or the body is not valid or invokes the macro itself, also through other macros.
+     */
+    public void registerMacro(String name, String... lines) {
+        macros.register(name, List.of(lines));
+    }
+
+    /**
+     * Unregisters a macro. The macros invoking it can no longer be expanded.
+     *
+     * @param name The name of the macro.
+     * @throws IllegalArgumentException If there is no macro with the name.
+     */
+    public void unregisterMacro(String name) {
+        macros.remove(name);
+    }
+
     /**
      * Unregisters all commands with the given main command.
      *
@@ -230,31 +527,227 @@ public class CommandParser {
      * @throws Exception If an error occurs while preparing the command line.
      */
     public void prepare(String line) throws Exception {
+        lineNumber++;
         if (line == null || line.isBlank()) {
             return;
         }
-        if (!remaining.isEmpty()) {
-            commandsParts.add(new ArrayList<>(remaining));
-            remaining.clear();
+        tokenizer.tokenize(line, lineNumber, commandsParts, remaining);
+        resolve(tokenizer);
+    }
+
+    /**
+     * Registers a completer for the arguments of an option. Its candidates are cached for completionCacheTtl() of the parser configuration.
+     *
+     * @param main      The main command name.
+     * @param option    The option name, or null for the main option.
+     * @param completer The argument completer.
+     */
+    public void registerCompleter(String main, String option, ArgumentCompleter completer) {
+        if (!mainCommands.containsKey(main)) {
+            throw new IllegalArgumentException("Main command not found: " + main);
         }
-        parseArgLine(line);
-        for (int i = 0; i < commandsParts.size(); i++) {
-            String main = commandsParts.get(i).getFirst();
-            if (isBlockStart(main) || isBlockEnd(main)) {
-                continue;
+        OptionAdapter options = mainCommands.get(main).getOptions();
+        String name = option == null ? mainCommands.get(main).getConfig().mainOptionName() : option;
+        if (!options.containsKey(name)) {
+            throw new IllegalArgumentException("Option not found: " + name);
+        }
+        completionEngine.register(mainCommands.canonicalName(main), options.canonicalName(name), completer);
+    }
+
+    /**
+     * Completes the word at the cursor of a partial command line. The line is read as the continuation of the unfinished
+     * statement of the parser, and the candidates are the registered commands, the options of the current command or the
+     * arguments from the completer of the current option.
+     *
+     * @param line   The partial command line.
+     * @param cursor The position of the cursor in the line.
+     * @return The completion, already done unless an argument completer is called.
+     */
+    public CompletableFuture<Completion> complete(String line, int cursor) {
+        return completionEngine.complete(line, cursor, remaining, tokenizer.quoteState());
+    }
+
+    /**
+     * Prepares the command lines like calling prepare() for each line, but tokenizes them concurrently on the common pool.
+     * The statements and the command tree are the same as the ones built by prepare(). If an unknown command or option is found,
+     * the lines after the one containing it are not prepared.
+     *
+     * @param lines The command lines.
+     * @throws Exception If an error occurs while preparing the command lines.
+     */
+    public void prepareInParallel(List<String> lines) throws Exception {
+        prepareInParallel(lines, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prepares the command lines like calling prepare() for each line, but tokenizes them concurrently on the given pool.
+     * The lines are split into chunks that are tokenized speculatively, as if no statement or quote continued from the previous chunk,
+     * and a chunk is tokenized again if that turns out to be wrong. The statements are then resolved against the registered commands line by line,
+     * so the statements and the command tree are the same as the ones built by prepare(). If an unknown command or option is found,
+     * the lines after the one containing it are not prepared.
+     *
+     * @param lines The command lines.
+     * @param pool  The pool to tokenize the chunks on.
+     * @throws Exception If an error occurs while preparing the command lines.
+     */
+    public void prepareInParallel(List<String> lines, ForkJoinPool pool) throws Exception {
+        int firstLine = lineNumber + 1;
+        boolean trackingPositions = diagnostics != null;
+        List<TokenizedChunk> chunks = Chunk.scanAll(lines.size(), pool, Chunk.of(tokenizer, remaining, 0), (from, to, previous) -> {
+            TokenizedChunk chunk = new TokenizedChunk(from, to, new Tokenizer(parserConfig));
+            // the positions are kept for the whole chunk, as the statements are resolved after all chunks are tokenized
+            chunk.tokenizer.setTrackingPositions(trackingPositions);
+            chunk.continueFrom(previous, chunk.tokenizer);
+            for (int i = from; i < to; i++) {
+                List<List<String>> statements = new ArrayList<>();
+                chunk.tokenizer.tokenize(lines.get(i), firstLine + i, statements, chunk.remaining);
+                chunk.statements.add(statements);
+                if (chunk.tokenizer.isInQuotes()) {
+                    chunk.quotesAfterLine.put(i, chunk.tokenizer.quoteState());
+                }
             }
-            if (!mainCommands.containsKey(main)) {
-                parserConfig.handleIllegalCommand(commandsParts.get(i).getFirst());
-                // the rest of commands will be cleared
-                commandsParts.clear();
-                remaining.clear();
-                return;
+            chunk.finish(chunk.tokenizer);
+            return chunk;
+        });
+        remaining.clear();
+        for (TokenizedChunk chunk : chunks) {
+            for (int i = chunk.from; i < chunk.to; i++) {
+                lineNumber++;
+                String line = lines.get(i);
+                if (line == null || line.isBlank()) {
+                    continue;
+                }
+                commandsParts.addAll(chunk.statements.get(i - chunk.from));
+                if (!resolve(chunk.tokenizer)) {
+                    // leave the parser as prepare() would have left it after this line
+                    tokenizer.restoreQuoteState(chunk.quotesAfterLine.getOrDefault(i, new ArrayDeque<>()));
+                    return;
+                }
             }
-            if (commandsParts.get(i).size() == 1 || !isExplicitOption(commandsParts.get(i).get(1))) {
-                commandsParts.get(i).add(1, ParserConfig.FULL_OPTION_PREFIX + mainCommands.get(main).getConfig().mainOptionName());
+        }
+        Chunk last = chunks.getLast();
+        tokenizer.restoreQuoteState(last.quotes());
+        for (int i = 0; i < last.remaining.size(); i++) {
+            remaining.add(last.remaining.get(i));
+            tokenizer.recordPosition(last.remaining.get(i), last.remainingPosition(i));
+        }
+    }
+
+    private static final class TokenizedChunk extends Chunk {
+        private final Tokenizer tokenizer;
+        private final List<List<List<String>>> statements = new ArrayList<>();
+        private final Map<Integer, Deque<Character>> quotesAfterLine = new HashMap<>();
+
+        private TokenizedChunk(int from, int to, Tokenizer tokenizer) {
+            super(from, to);
+            this.tokenizer = tokenizer;
+        }
+    }
+
+    private boolean resolve(Tokenizer positions) throws Exception {
+        ResolveEvent event = new ResolveEvent();
+        // the statements are cleared when they are resolved, so they are counted before if the event may be recorded
+        if (event.isEnabled() && !commandsParts.isEmpty()) {
+            int tokens = 0;
+            for (List<String> statement : commandsParts) {
+                tokens += statement.size();
             }
+            event.set(commandsParts.getFirst().getFirst(), commandsParts.size(), tokens);
         }
-        parseArgs();
+        event.begin();
+        try {
+            for (int i = 0; i < commandsParts.size(); i++) {
+                String main = commandsParts.get(i).getFirst();
+                if (isBlockStart(main) || isBlockEnd(main) || tokenizer.isOperator(main)) {
+                    continue;
+                }
+                if (!mainCommands.containsKey(main) && macros.contains(main)) {
+                    List<String> invocation = commandsParts.get(i);
+                    List<List<String>> expansion = macros.expand(main, invocation.subList(1, invocation.size()));
+                    if (expansion == null) {
+                        if (diagnostics != null) {
+                            report(Diagnostic.Kind.ILLEGAL_MACRO_ARGUMENTS, main, main, 0, i, Set.of(), positions);
+                        } else {
+                            parserConfig.handleIllegalMacroArguments(main);
+                        }
+                        commandsParts.clear();
+                        remaining.clear();
+                        tokenizer.clearPositions();
+                        return false;
+                    }
+                    commandsParts.remove(i);
+                    commandsParts.addAll(i, expansion);
+                    // the statements of the body are resolved in turn, so the macros invoked by it are expanded as well
+                    i--;
+                    continue;
+                }
+                if (!mainCommands.containsKey(main)) {
+                    if (diagnostics != null) {
+                        report(Diagnostic.Kind.ILLEGAL_COMMAND, main, main, 0, i, mainCommands.names(), positions);
+                    } else {
+                        parserConfig.handleIllegalCommand(commandsParts.get(i).getFirst());
+                    }
+                    // the rest of commands will be cleared
+                    commandsParts.clear();
+                    remaining.clear();
+                    tokenizer.clearPositions();
+                    return false;
+                }
+                if (commandsParts.get(i).size() == 1 || !isExplicitOption(commandsParts.get(i).get(1))) {
+                    commandsParts.get(i).add(1, ParserConfig.FULL_OPTION_PREFIX + mainCommands.get(main).getConfig().mainOptionName());
+                }
+            }
+        } catch (RuntimeException e) {
+            // e.g. a lazy group failed to load, the statements are dropped as for an unknown command
+            commandsParts.clear();
+            remaining.clear();
+            tokenizer.clearPositions();
+            throw e;
+        }
+        boolean parsed = parseArgs(positions);
+        event.end();
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+        if (remaining.isEmpty()) {
+            tokenizer.clearPositions();
+        }
+        return parsed;
+    }
+
+    /**
+     * Validates the command lines without preparing them, each line is handled as if it were passed to prepare().
+     * The commands and options are checked against the registered ones and the blocks are checked for balance, but no command is created
+     * and the state of this parser is not changed. Unlike prepare(), the validation does not stop at the first error.
+     *
+     * @param lines The command lines.
+     * @return All diagnostics found, or an empty list if the lines are valid.
+     */
+    public List<Diagnostic> validate(List<String> lines) {
+        return new Validator(mainCommands, parserConfig, macros).validate(lines, null);
+    }
+
+    /**
+     * Validates the command lines like validate(), but splits them into chunks that are validated on the common pool.
+     * The registered commands must not be changed during the validation.
+     *
+     * @param lines The command lines.
+     * @return All diagnostics found, or an empty list if the lines are valid.
+     */
+    public List<Diagnostic> validateInParallel(List<String> lines) {
+        return validateInParallel(lines, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Validates the command lines like validate(), but splits them into chunks that are validated on the given pool.
+     * The registered commands must not be changed during the validation.
+     *
+     * @param lines The command lines.
+     * @param pool  The pool to validate the chunks on.
+     * @return All diagnostics found, or an empty list if the lines are valid.
+     */
+    public List<Diagnostic> validateInParallel(List<String> lines, ForkJoinPool pool) {
+        return new Validator(mainCommands, parserConfig, macros).validate(lines, pool);
     }
 
     /**
@@ -263,8 +756,98 @@ public class CommandParser {
      * @throws Exception If an error occurs while executing the commands.
      */
     public void execute() throws Exception {
-        commandTree.execute(commandTree.peek());
+        commandTree.execute(beforeExecution());
+        commandTree.clear();
+        blockParent = null;
+        lastCommand = null;
+        pendingCondition = RunCondition.ALWAYS;
+    }
+
+    /**
+     * Starts executing the prepared commands on a new virtual thread and removes them from the parser.
+     * The returned handle can cancel the execution and reports how each statement ended, and the timeouts
+     * of the command configurations are enforced.
+     *
+     * @return The handle of the execution.
+     * @throws Exception If an error occurs before the execution is started.
+     */
+    public Execution executeAsync() throws Exception {
+        return executeAsync(Thread.ofVirtual()::start);
+    }
+
+    /**
+     * Starts executing the prepared commands on the given executor and removes them from the parser.
+     * The returned handle can cancel the execution and reports how each statement ended, and the timeouts
+     * of the command configurations are enforced.
+     *
+     * @param executor The executor to run the command tree on.
+     * @return The handle of the execution.
+     * @throws Exception If an error occurs before the execution is started.
+     */
+    public Execution executeAsync(Executor executor) throws Exception {
+        Command head = beforeExecution();
+        detach();
+        return Execution.start(head, executor);
+    }
+
+    private Command beforeExecution() throws Exception {
+        // the statements of a compact or persistent tree cannot be replaced by coalesced ones
+        if (coalescer == null || commandTree instanceof CompactCommandTree || commandTree instanceof PersistentCommandTree) {
+            return commandTree.peek();
+        }
+        return coalesce(commandTree.peek());
+    }
+
+    /**
+     * Removes the prepared commands from the parser without executing them.
+     * The returned command can be executed any number of times, e.g. by a scheduler, without parsing the line again.
+     *
+     * @return The head of the prepared command tree, or null if nothing was prepared.
+     */
+    public Command detach() {
+        // a persistent tree hands its commands over in a snapshot, so that they can still be changed after the tree is cleared
+        Command head = commandTree instanceof PersistentCommandTree persistent ? persistent.snapshot().peek() : commandTree.peek();
         commandTree.clear();
+        blockParent = null;
+        lastCommand = null;
+        pendingCondition = RunCondition.ALWAYS;
+        return head;
+    }
+
+    /**
+     * Compiles the prepared commands into a program and removes them from the parser.
+     * The program runs the commands as execute() would, any number of times and also concurrently, until the registered commands change.
+     * The statements of a program are not coalesced. The statements of a compact or persistent command tree are compiled
+     * if the command factory is a BaseCommandFactory, and executed as they are otherwise.
+     *
+     * @return The program, which is empty if nothing was prepared.
+     */
+    public CommandProgram compile() {
+        boolean views = commandTree instanceof CompactCommandTree || commandTree instanceof PersistentCommandTree;
+        return CommandProgram.compile(detach(), mainCommands, views ? commandFactory : null);
+    }
+
+    /**
+     * Prepares and executes the given tokenized statements, e.g. a statement of a script with its block.
+     * The statements are resolved as if their lines were passed to prepare(), and nothing is executed if one of them is unknown.
+     *
+     * @param statements The statements, including the block characters.
+     * @throws Exception If an error occurs while running the statements.
+     */
+    void runStatements(List<List<String>> statements) throws Exception {
+        for (List<String> statement : statements) {
+            // the statements are changed while they are resolved
+            commandsParts.add(new ArrayList<>(statement));
+        }
+        if (resolve(tokenizer)) {
+            execute();
+        } else {
+            detach();
+        }
+    }
+
+    ParserConfig parserConfig() {
+        return parserConfig;
     }
 
     /**
@@ -285,7 +868,31 @@ public class CommandParser {
      * @return A new command with the given main command name.
      */
     public Command createCommand(String main) {
-        return commandFactory.createCommand(main, mainCommands, parserConfig);
+        BuildEvent event = new BuildEvent();
+        event.begin();
+        Command command = commandFactory.createCommand(main, mainCommands, parserConfig);
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(main, 0, 0);
+            event.commit();
+        }
+        return command;
+    }
+
+    private Command build(String main, LinkedHashMap<String, List<String>> options) {
+        BuildEvent event = new BuildEvent();
+        event.begin();
+        Command command = commandFactory.createCommand(main, options, mainCommands, parserConfig);
+        event.end();
+        if (event.shouldCommit()) {
+            int arguments = 0;
+            for (List<String> args : options.values()) {
+                arguments += args.size();
+            }
+            event.set(main, options.size(), arguments);
+            event.commit();
+        }
+        return command;
     }
 
     /**
@@ -340,21 +947,43 @@ public class CommandParser {
         return content;
     }
 
-    private void parseArgs() throws Exception {
-        if (!usingBlockStructure()) {
+    private boolean parseArgs(Tokenizer positions) throws Exception {
+        if (commandTree.peek() == null) {
+            blockParent = null;
+            lastCommand = null;
+            pendingCondition = RunCondition.ALWAYS;
+        }
+        // with operators the top-level statements are siblings, so that an operator refers to the previous one and not to the block of the first
+        if ((!usingBlockStructure() || usingOperators()) && commandTree.peek() == null) {
             commandTree.add(null, commandFactory.createCommand(Command.NOP_COMMAND, mainCommands, parserConfig));
         }
-        Command parent = commandTree.peek();
-        Command command = parent;
-        for (List<String> commandParts : new ArrayList<>(commandsParts)) {
+        if (blockParent == null) {
+            blockParent = commandTree.peek();
+        }
+        if (lastCommand == null) {
+            lastCommand = blockParent;
+        }
+        Map<String, String> arguments = parserConfig.deduplicateArguments() ? new HashMap<>() : null;
+        Variables variables = mainCommands.getVariables();
+        int statementIndex = -1;
+        for (List<String> commandParts : commandsParts) {
+            statementIndex++;
             String main = commandParts.getFirst();
             if (isBlockStart(main)) {
-                parent = command;
+                blockParent = lastCommand;
+                // an operator only connects statements in the same block
+                pendingCondition = RunCondition.ALWAYS;
                 continue;
             } else if (isBlockEnd(main)) {
-                parent = (Command) parent.getParent();
+                blockParent = blockParent == null ? null : (Command) blockParent.getParent();
+                pendingCondition = RunCondition.ALWAYS;
+                continue;
+            } else if (tokenizer.isOperator(main)) {
+                pendingCondition = main.equals(parserConfig.andOperator()) ? RunCondition.ON_SUCCESS : RunCondition.ON_FAILURE;
                 continue;
             }
+            // use the registered names so that all commands share the same strings
+            main = mainCommands.canonicalName(main);
             LinkedHashMap<String, List<String>> options = new LinkedHashMap<>();
             OptionAdapter optionMap = mainCommands.get(main).getOptions();
             String key = null;
@@ -363,135 +992,128 @@ public class CommandParser {
                 if (isExplicitFullOption(p)) {
                     key = p.substring(p.lastIndexOf(ParserConfig.OPTION_PREFIX) + 1);
                     if (!optionMap.containsKey(key)) {
-                        parserConfig.handleIllegalOption(key);
+                        if (diagnostics != null) {
+                            report(Diagnostic.Kind.ILLEGAL_OPTION, key, p, p.lastIndexOf(ParserConfig.OPTION_PREFIX) + 1, statementIndex, optionMap.names(), positions);
+                        } else {
+                            parserConfig.handleIllegalOption(key);
+                        }
                         // the rest of commands will be cleared
                         commandsParts.clear();
                         remaining.clear();
-                        return;
+                        return false;
                     }
+                    key = optionMap.canonicalName(key);
                     options.put(key, new ArrayList<>());
                 } else if (isExplicitOption(p)) {
                     String keys = p.substring(1);
                     for (int j = 0; j < keys.length(); j++) {
                         key = keys.substring(j, j + 1);
                         if (!optionMap.containsKey(key)) {
-                            parserConfig.handleIllegalOption(key);
+                            if (diagnostics != null) {
+                                report(Diagnostic.Kind.ILLEGAL_OPTION, key, p, j + 1, statementIndex, optionMap.names(), positions);
+                            } else {
+                                parserConfig.handleIllegalOption(key);
+                            }
                             commandsParts.clear();
                             remaining.clear();
-                            return;
+                            return false;
                         }
+                        key = optionMap.canonicalName(key);
                         options.put(key, new ArrayList<>());
                     }
                 } else if (!p.isBlank()) {
+                    if (arguments != null) {
+                        String existing = arguments.putIfAbsent(p, p);
+                        if (existing != null) {
+                            p = existing;
+                        }
+                    }
+                    if (variables != null) {
+                        // the references are split into segments once, not each time the argument is read
+                        variables.compile(p);
+                    }
                     options.get(key).add(p);
                 }
             }
-            command = commandFactory.createCommand(main, options, mainCommands, parserConfig);
-            commandTree.add(parent, command);
-            commandsParts.remove(commandParts);
+            Command command = build(main, options);
+            // the head is always executed, so a condition only applies to the statements under it
+            if (pendingCondition != RunCondition.ALWAYS && commandTree.peek() != null) {
+                command.setCondition(pendingCondition);
+            }
+            pendingCondition = RunCondition.ALWAYS;
+            // the first command becomes the head if there is no tree yet, and a compact tree returns a view of its copy
+            lastCommand = commandTree.add(blockParent == null ? commandTree.peek() : blockParent, command);
         }
+        commandsParts.clear();
+        return true;
     }
 
-    private void parseArgLine(String args) {
-        if (args == null || args.isBlank()) {
-            return;
-        }
-        List<String> result = commandsParts.isEmpty() ? new ArrayList<>() : commandsParts.removeFirst();
-
-        // allow a command to be split into multiple lines if EOS is specified
-        // need to add a delimiter to the beginning of next line if handling a new token
-        // or the new token will be combined with previous one
-        StringBuilder currentElement = result.isEmpty() ? new StringBuilder() : new StringBuilder(result.removeLast());
-
-        for (int i = 0; i < args.length(); i++) {
-            char c = args.charAt(i);
-
-            if (c == '\n' || c == '\r') {
-                // ignore new line characters
-                continue;
-            }
-
-            if (takeCareOfQuote(c, true)) {
-                switchInQuotes(c);
-                currentElement.append(c);
-                if (inQuotes.isEmpty()) {
-                    result.add(currentElement.toString().trim());
-                    currentElement.setLength(0);
-                }
-                continue;
-            }
+    private void report(Diagnostic.Kind kind, String name, String token, int offset, int statementIndex, Collection<String> names, Tokenizer positions) {
+        long position = positions.positionOf(token);
+        int line = position == 0 ? lineNumber : Tokenizer.lineOf(position);
+        int column = position == 0 ? 0 : Tokenizer.columnOf(position) + offset;
+        diagnostics.report(new Diagnostic(kind, line, column, statementIndex, name, Diagnostics.suggest(name, names)));
+    }
 
-            if (isBlockStart(c) && inQuotes.isEmpty()) {
-                if (!currentElement.isEmpty()) {
-                    result.add(currentElement.toString().trim());
-                    currentElement.setLength(0);
-                }
-                if (!result.isEmpty()) {
-                    commandsParts.add(result);
-                    result = new ArrayList<>();
+    private Command coalesce(Command head) {
+        if (head == null) {
+            return null;
+        }
+        // the identical statements of a batch are executed once even if the coalescing window is zero
+        Map<StatementKey, CompletableFuture<Void>> batch = new HashMap<>();
+        Command coalesced = coalesced(head, batch);
+        if (coalesced != head) {
+            return coalesced;
+        }
+        head.walk(node -> {
+            List<Node> children = node.getChildren();
+            List<Node> replaced = null;
+            for (int i = 0; i < children.size(); i++) {
+                Command child = (Command) children.get(i);
+                Command replacement = coalesced(child, batch);
+                if (replacement != child) {
+                    if (replaced == null) {
+                        replaced = new ArrayList<>(children);
+                    }
+                    replaced.set(i, replacement);
                 }
-                commandsParts.add(List.of(String.valueOf(c)));
-                continue;
-            }
-
-            if (isBlockEnd(c) && inQuotes.isEmpty()) {
-                commandsParts.add(List.of(String.valueOf(c)));
-                continue;
             }
-
-            if (c == parserConfig.escape()) {
-                if (i + 1 < args.length()) {
-                    char t = args.charAt(i + 1);
-                    if (takeCareOfQuote(t, false) && t != parserConfig.escape())
-                        currentElement.append(c);
-                    currentElement.append(t);
-                    i++;
+            if (replaced != null) {
+                node.removeAllChildren();
+                for (Node child : replaced) {
+                    node.addChild(child);
                 }
-                continue;
             }
+            return true;
+        });
+        return head;
+    }
 
-            if ((c == parserConfig.delimiter() || takeCareOfEOS(c, true)) && inQuotes.isEmpty()) {
-                if (!currentElement.isEmpty()) {
-                    result.add(currentElement.toString().trim());
-                    currentElement.setLength(0);
-                }
-                if (takeCareOfEOS(c, true) && !result.isEmpty()) {
-                    commandsParts.add(result);
-                    result = new ArrayList<>();
-                }
-            } else if (!inQuotes.isEmpty() || c != ' ') {
-                currentElement.append(c);
-            }
+    private Command coalesced(Command statement, Map<StatementKey, CompletableFuture<Void>> batch) {
+        if (!statement.getChildren().isEmpty() || !mainCommands.containsKey(statement.getName())) {
+            return statement;
         }
-
-        if (!currentElement.isEmpty()) {
-            result.add(currentElement.toString().trim());
+        CommandConfig config = mainCommands.get(statement.getName()).getConfig();
+        if (!config.idempotent()) {
+            return statement;
         }
-
-        if (parserConfig.endOfStatement() == ParserConfig.NO_EOS) {
-            commandsParts.add(result);
-        } else {
-            if (!result.isEmpty()) {
-                remaining.addAll(result);
-            }
+        StatementKey key = StatementKey.of(statement, mainCommands.get(statement.getName()).getOptions());
+        if (key != null && mainCommands.getVariables() != null && hasReferences(key)) {
+            // the same text can expand to other values each time, so the statement is always executed
+            return statement;
         }
-
+        return key == null ? statement : new CoalescedCommand(statement, key, config.coalescingWindow(), coalescer, batch);
     }
 
-    private boolean takeCareOfQuote(char q, boolean want) {
-        return !parserConfig.quotes().isEmpty() && (want == (parserConfig.quotes().indexOf(q) >= 0));
-    }
-
-    private void switchInQuotes(char q) {
-        if (!inQuotes.isEmpty() && inQuotes.peek() == q) {
-            inQuotes.pop();
-        } else {
-            inQuotes.push(q);
+    private static boolean hasReferences(StatementKey key) {
+        for (List<String> option : key.options()) {
+            for (int i = 1; i < option.size(); i++) {
+                if (option.get(i).contains("${")) {
+                    return true;
+                }
+            }
         }
-    }
-
-    private boolean takeCareOfEOS(char q, boolean want) {
-        return parserConfig.endOfStatement() != ParserConfig.NO_EOS && (want == (parserConfig.endOfStatement() == q));
+        return false;
     }
 
     private boolean isExplicitOption(String s) {
@@ -510,18 +1132,14 @@ public class CommandParser {
         return usingBlockStructure() && s.length() == 1 && parserConfig.blockChars().charAt(1) == s.charAt(0);
     }
 
-    private boolean isBlockStart(char c) {
-        return usingBlockStructure() && parserConfig.blockChars().charAt(0) == c;
-    }
-
-    private boolean isBlockEnd(char c) {
-        return usingBlockStructure() && parserConfig.blockChars().charAt(1) == c;
-    }
-
     private boolean usingBlockStructure() {
         return parserConfig.blockChars().length() == 2;
     }
 
+    private boolean usingOperators() {
+        return !parserConfig.andOperator().isEmpty() || !parserConfig.orOperator().isEmpty();
+    }
+
     private void registerNoOperationCommand() {
         register(Command.NOP_COMMAND, (args) -> {
         });
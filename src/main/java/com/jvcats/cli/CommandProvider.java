@@ -0,0 +1,17 @@
+package com.jvcats.cli;
+
+/**
+ * This interface defines a provider of commands, which registers its commands with a parser.
+ * Providers can be discovered with ServiceLoader by calling loadProviders() from CommandParser.
+ * A provider annotated with CommandGroup is only instantiated the first time one of its commands is parsed.
+ */
+@FunctionalInterface
+public interface CommandProvider {
+
+    /**
+     * Registers the commands of this provider.
+     *
+     * @param parser the parser to register the commands with.
+     */
+    void register(CommandParser parser);
+}
@@ -0,0 +1,12 @@
+package com.jvcats.cli;
+
+import java.util.List;
+
+/**
+ * This record is the result of completing a command line.
+ *
+ * @param start      The index in the line where the word being completed starts; a candidate replaces the line from there to the cursor.
+ * @param candidates The candidates in ascending order for commands and options, in the order of the completer for arguments.
+ */
+public record Completion(int start, List<String> candidates) {
+}
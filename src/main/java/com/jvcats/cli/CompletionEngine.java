@@ -0,0 +1,236 @@
+package com.jvcats.cli;
+
+import com.jvcats.cli.cmd.Command;
+import com.jvcats.cli.cmd.MainCommandAdapter;
+import com.jvcats.cli.cmd.OptionAdapter;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The completion engine of a parser. The command and option names are kept as sorted arrays, refreshed when the
+ * registry changes, so the candidates for a prefix are found by binary search. The results of argument completers
+ * are cached per command, option and prefix for the configured time, and concurrent requests share one call.
+ */
+class CompletionEngine {
+    private static final int MAX_CACHED = 4096;
+    private final MainCommandAdapter mainCommands;
+    private final ParserConfig parserConfig;
+    private final Tokenizer tokenizer;
+    private final Map<String, Map<String, ArgumentCompleter>> completers = new ConcurrentHashMap<>();
+    private final Map<String, SortedNames> optionNames = new ConcurrentHashMap<>();
+    private final Map<CacheKey, Cached> cache = new ConcurrentHashMap<>();
+    private volatile SortedNames commandNames;
+
+    private record SortedNames(int version, String[] names) {
+    }
+
+    private record CacheKey(String main, String option, String prefix) {
+    }
+
+    private record Cached(CompletableFuture<List<String>> candidates, long createdAt) {
+    }
+
+    CompletionEngine(MainCommandAdapter mainCommands, ParserConfig parserConfig) {
+        this.mainCommands = mainCommands;
+        this.parserConfig = parserConfig;
+        this.tokenizer = new Tokenizer(parserConfig);
+    }
+
+    void register(String main, String option, ArgumentCompleter completer) {
+        completers.computeIfAbsent(main, k -> new ConcurrentHashMap<>()).put(option, completer);
+        cache.keySet().removeIf(key -> key.main().equals(main) && key.option().equals(option));
+    }
+
+    /**
+     * Completes the word at the cursor. The line continues the unfinished statement and quotes of the parser.
+     */
+    CompletableFuture<Completion> complete(String line, int cursor, List<String> unfinished, Deque<Character> quotes) {
+        if (cursor < 0 || cursor > line.length()) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        String prefix = line.substring(0, cursor);
+        List<List<String>> statements = new ArrayList<>();
+        List<String> remaining = new ArrayList<>(unfinished);
+        boolean inQuotes;
+        synchronized (tokenizer) {
+            tokenizer.restoreQuoteState(quotes);
+            tokenizer.tokenize(prefix, 0, statements, remaining);
+            inQuotes = tokenizer.isInQuotes();
+            tokenizer.restoreQuoteState(new ArrayDeque<>());
+        }
+        List<String> current;
+        if (parserConfig.endOfStatement() != ParserConfig.NO_EOS) {
+            current = remaining;
+        } else {
+            current = statements.isEmpty() ? new ArrayList<>() : new ArrayList<>(statements.getLast());
+        }
+        if (current.size() == 1 && (isBlockChar(current.getFirst()) || tokenizer.isOperator(current.getFirst()))) {
+            current.clear();
+        }
+        String word = "";
+        if (inQuotes || (!prefix.isEmpty() && !isBoundary(prefix.charAt(prefix.length() - 1)))) {
+            word = current.isEmpty() ? "" : current.removeLast();
+        }
+        if (inQuotes && !word.isEmpty() && parserConfig.quotes().indexOf(word.charAt(0)) >= 0) {
+            // the candidates of a quoted argument are inserted after the opening quote
+            word = word.substring(1);
+        }
+        int start = Math.max(0, cursor - word.length());
+        if (current.isEmpty()) {
+            return done(start, withPrefix(commandNames(), word, ""));
+        }
+        String main = current.getFirst();
+        if (!mainCommands.containsKey(main)) {
+            return done(start, List.of());
+        }
+        main = mainCommands.canonicalName(main);
+        OptionAdapter options = mainCommands.get(main).getOptions();
+        if (word.startsWith(ParserConfig.FULL_OPTION_PREFIX)) {
+            return done(start, withPrefix(optionNames(main, options), word.substring(2), ParserConfig.FULL_OPTION_PREFIX));
+        }
+        if (word.startsWith(ParserConfig.OPTION_PREFIX)) {
+            return done(start, shortOptions(main, options, word));
+        }
+        String option = currentOption(current, options, mainCommands.get(main).getConfig().mainOptionName());
+        ArgumentCompleter completer = completers.getOrDefault(main, Map.of()).get(option);
+        if (completer == null) {
+            // without a completer, an empty word lists the options
+            return done(start, word.isEmpty() ? withPrefix(optionNames(main, options), "", ParserConfig.FULL_OPTION_PREFIX) : List.of());
+        }
+        String argument = word;
+        return cached(main, option, argument, completer).thenApply(candidates -> {
+            List<String> result = new ArrayList<>(candidates.size());
+            for (String candidate : candidates) {
+                if (candidate.startsWith(argument)) {
+                    result.add(candidate);
+                }
+            }
+            return new Completion(start, result);
+        });
+    }
+
+    private CompletableFuture<List<String>> cached(String main, String option, String prefix, ArgumentCompleter completer) {
+        long ttl = parserConfig.completionCacheTtl().toNanos();
+        long now = System.nanoTime();
+        CacheKey key = new CacheKey(main, option, prefix);
+        Cached cached = cache.get(key);
+        if (cached != null && (!cached.candidates().isDone() || now - cached.createdAt() < ttl)) {
+            return cached.candidates();
+        }
+        if (cache.size() >= MAX_CACHED) {
+            cache.values().removeIf(c -> c.candidates().isDone() && now - c.createdAt() >= ttl);
+            if (cache.size() >= MAX_CACHED) {
+                cache.clear();
+            }
+        }
+        Cached fresh = new Cached(new CompletableFuture<>(), now);
+        Cached existing = cached == null ? cache.putIfAbsent(key, fresh) : (cache.replace(key, cached, fresh) ? null : cache.get(key));
+        if (existing != null) {
+            return existing.candidates();
+        }
+        CompletableFuture<List<String>> call;
+        try {
+            call = completer.complete(prefix);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((candidates, e) -> {
+            if (e != null) {
+                // failures are not cached, the next keystroke asks again
+                cache.remove(key, fresh);
+                fresh.candidates().completeExceptionally(e);
+            } else {
+                fresh.candidates().complete(candidates == null ? List.of() : List.copyOf(candidates));
+            }
+        });
+        return fresh.candidates();
+    }
+
+    private String[] commandNames() {
+        SortedNames names = commandNames;
+        int version = mainCommands.version();
+        if (names == null || names.version() != version) {
+            Set<String> all = new HashSet<>(mainCommands.names());
+            all.addAll(mainCommands.lazyNames());
+            all.remove(Command.NOP_COMMAND);
+            names = new SortedNames(version, sorted(all));
+            commandNames = names;
+        }
+        return names.names();
+    }
+
+    private String[] optionNames(String main, OptionAdapter options) {
+        SortedNames names = optionNames.get(main);
+        int version = options.version();
+        if (names == null || names.version() != version) {
+            Set<String> all = new HashSet<>(options.names());
+            all.remove(mainCommands.get(main).getConfig().mainOptionName());
+            names = new SortedNames(version, sorted(all));
+            optionNames.put(main, names);
+        }
+        return names.names();
+    }
+
+    private List<String> shortOptions(String main, OptionAdapter options, String word) {
+        if (word.equals(ParserConfig.OPTION_PREFIX)) {
+            List<String> result = new ArrayList<>();
+            for (String name : optionNames(main, options)) {
+                result.add(name.length() == 1 ? ParserConfig.OPTION_PREFIX + name : ParserConfig.FULL_OPTION_PREFIX + name);
+            }
+            return result;
+        }
+        // combined short options, offer the ones not given yet
+        List<String> result = new ArrayList<>();
+        for (String name : optionNames(main, options)) {
+            if (name.length() == 1 && word.indexOf(name.charAt(0), 1) < 0) {
+                result.add(word + name);
+            }
+        }
+        return result;
+    }
+
+    private static String currentOption(List<String> statement, OptionAdapter options, String mainOptionName) {
+        for (int i = statement.size() - 1; i > 0; i--) {
+            String token = statement.get(i);
+            if (token.startsWith(ParserConfig.FULL_OPTION_PREFIX)) {
+                return options.canonicalName(token.substring(token.lastIndexOf(ParserConfig.OPTION_PREFIX) + 1));
+            }
+            if (token.startsWith(ParserConfig.OPTION_PREFIX) && token.length() > 1) {
+                return options.canonicalName(token.substring(token.length() - 1));
+            }
+        }
+        return mainOptionName;
+    }
+
+    private static List<String> withPrefix(String[] sorted, String prefix, String decoration) {
+        int from = Arrays.binarySearch(sorted, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = from; i < sorted.length && sorted[i].startsWith(prefix); i++) {
+            result.add(decoration.isEmpty() ? sorted[i] : decoration + sorted[i]);
+        }
+        return result;
+    }
+
+    private static String[] sorted(Collection<String> names) {
+        String[] result = names.toArray(new String[0]);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static CompletableFuture<Completion> done(int start, List<String> candidates) {
+        return CompletableFuture.completedFuture(new Completion(start, candidates));
+    }
+
+    private boolean isBoundary(char c) {
+        return c == parserConfig.delimiter() || c == ' ' || c == parserConfig.endOfStatement() || isBlockChar(String.valueOf(c));
+    }
+
+    private boolean isBlockChar(String token) {
+        return parserConfig.blockChars().length() == 2 && token.length() == 1 && parserConfig.blockChars().indexOf(token.charAt(0)) >= 0;
+    }
+}
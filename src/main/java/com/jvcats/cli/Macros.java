@@ -0,0 +1,247 @@
+package com.jvcats.cli;
+
+import com.jvcats.cli.cmd.MainCommandAdapter;
+import com.jvcats.cli.cmd.OptionAdapter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The macros of a parser. The body of a macro is tokenized and checked once when it is registered, into templates of its statements
+ * whose tokens are either literal or refer to the arguments of an invocation. An invocation is expanded on the tokens,
+ * so the cost of an expansion depends on the number of tokens it produces and not on the text of the body.
+ */
+class Macros {
+    static final String ALL_ARGUMENTS = "$@";
+    private static final int LITERAL = -1;
+    private static final int ALL = -2;
+    private final MainCommandAdapter mainCommands;
+    private final ParserConfig parserConfig;
+    private final Map<String, Macro> macros = new ConcurrentHashMap<>();
+
+    // arity is the number of numbered arguments, and an invocation may pass more of them only if the body refers to all arguments
+    private record Macro(List<Template> statements, int arity, boolean variadic, Set<String> references) {
+    }
+
+    // arguments[i] is LITERAL if tokens[i] is kept as it is, ALL for all arguments, or the index of the argument it is replaced with
+    private record Template(String[] tokens, int[] arguments) {
+    }
+
+    Macros(MainCommandAdapter mainCommands, ParserConfig parserConfig) {
+        this.mainCommands = mainCommands;
+        this.parserConfig = parserConfig;
+    }
+
+    /**
+     * Tokenizes and checks the body of a macro and registers it, replacing the macro with the same name.
+     *
+     * @param name  The name of the macro.
+     * @param lines The lines of the body.
+     * @throws IllegalArgumentException If the name is taken by a command, or the body is not valid or refers to the macro itself.
+     */
+    void register(String name, List<String> lines) {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Macro name cannot be blank");
+        }
+        if (mainCommands.containsKey(name)) {
+            throw new IllegalArgumentException("Macro name is registered as a command: " + name);
+        }
+        Tokenizer tokenizer = new Tokenizer(parserConfig);
+        List<List<String>> statements = new ArrayList<>();
+        List<String> remaining = new ArrayList<>();
+        for (String line : lines) {
+            tokenizer.tokenize(line, 0, statements, remaining);
+        }
+        if (tokenizer.isInQuotes()) {
+            throw new IllegalArgumentException("Unclosed quote in macro: " + name);
+        }
+        // the last statement of the body does not need to be ended
+        if (!remaining.isEmpty()) {
+            statements.add(new ArrayList<>(remaining));
+        }
+        if (statements.isEmpty()) {
+            throw new IllegalArgumentException("Macro body cannot be empty: " + name);
+        }
+        List<Template> templates = new ArrayList<>(statements.size());
+        Set<String> references = new HashSet<>();
+        int arity = 0;
+        boolean variadic = false;
+        int depth = 0;
+        for (List<String> statement : statements) {
+            String main = statement.getFirst();
+            if (isBlockStart(main)) {
+                depth++;
+            } else if (isBlockEnd(main)) {
+                if (--depth < 0) {
+                    throw new IllegalArgumentException("Unexpected end of block in macro: " + name);
+                }
+            } else if (!tokenizer.isOperator(main)) {
+                checkStatement(name, statement);
+                references.add(main);
+            }
+            String[] tokens = statement.toArray(new String[0]);
+            int[] arguments = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                arguments[i] = argumentOf(tokens[i]);
+                if (arguments[i] == ALL) {
+                    variadic = true;
+                } else if (arguments[i] != LITERAL) {
+                    arity = Math.max(arity, arguments[i] + 1);
+                }
+            }
+            templates.add(new Template(tokens, arguments));
+        }
+        if (depth != 0) {
+            throw new IllegalArgumentException("Unclosed block in macro: " + name);
+        }
+        if (tokenizer.isOperator(statements.getLast().getFirst())) {
+            throw new IllegalArgumentException("Macro body cannot end with an operator: " + name);
+        }
+        if (reaches(references, name, new HashSet<>())) {
+            throw new IllegalArgumentException("Recursive macro: " + name);
+        }
+        macros.put(name, new Macro(List.copyOf(templates), arity, variadic, Set.copyOf(references)));
+    }
+
+    /**
+     * Removes a macro. The macros referring to it can no longer be expanded.
+     *
+     * @param name The name of the macro.
+     * @throws IllegalArgumentException If there is no macro with the name.
+     */
+    void remove(String name) {
+        if (macros.remove(name) == null) {
+            throw new IllegalArgumentException("Macro not found: " + name);
+        }
+    }
+
+    boolean contains(String name) {
+        return !macros.isEmpty() && macros.containsKey(name);
+    }
+
+    /**
+     * Checks if a macro can be invoked with the given number of arguments.
+     *
+     * @param name      The name of the macro.
+     * @param arguments The number of arguments.
+     * @return True if the number of arguments fits the body, false otherwise.
+     */
+    boolean accepts(String name, int arguments) {
+        Macro macro = macros.get(name);
+        return macro != null && (macro.variadic() ? arguments >= macro.arity() : arguments == macro.arity());
+    }
+
+    /**
+     * Expands an invocation of a macro into the statements of its body. The statements are new lists, as the parser adds to them.
+     * The macros invoked by the body are not expanded.
+     *
+     * @param name      The name of the macro.
+     * @param arguments The tokens after the name of the macro.
+     * @return The statements, or null if the macro does not accept the number of arguments.
+     */
+    List<List<String>> expand(String name, List<String> arguments) {
+        Macro macro = macros.get(name);
+        if (macro == null || !accepts(name, arguments.size())) {
+            return null;
+        }
+        List<List<String>> statements = new ArrayList<>(macro.statements().size());
+        for (Template template : macro.statements()) {
+            List<String> statement = new ArrayList<>(template.tokens().length + (macro.variadic() ? arguments.size() : 0));
+            for (int i = 0; i < template.tokens().length; i++) {
+                int argument = template.arguments()[i];
+                if (argument == LITERAL) {
+                    statement.add(template.tokens()[i]);
+                } else if (argument == ALL) {
+                    statement.addAll(arguments);
+                } else {
+                    statement.add(arguments.get(argument));
+                }
+            }
+            statements.add(statement);
+        }
+        return statements;
+    }
+
+    private void checkStatement(String name, List<String> statement) {
+        String main = statement.getFirst();
+        if (argumentOf(main) != LITERAL) {
+            throw new IllegalArgumentException("Command name of a statement cannot be an argument in macro " + name + ": " + main);
+        }
+        if (main.equals(name)) {
+            throw new IllegalArgumentException("Recursive macro: " + name);
+        }
+        if (!mainCommands.containsKey(main)) {
+            if (!macros.containsKey(main)) {
+                throw new IllegalArgumentException("Unknown command in macro " + name + ": " + main);
+            }
+            return;
+        }
+        OptionAdapter optionMap = mainCommands.get(main).getOptions();
+        if (statement.size() == 1 || !isExplicitOption(statement.get(1))) {
+            String mainOption = mainCommands.get(main).getConfig().mainOptionName();
+            if (!optionMap.containsKey(mainOption)) {
+                throw new IllegalArgumentException("Unknown option in macro " + name + ": " + mainOption);
+            }
+        }
+        for (int i = 1; i < statement.size(); i++) {
+            String p = statement.get(i);
+            if (isExplicitFullOption(p)) {
+                String key = p.substring(p.lastIndexOf(ParserConfig.OPTION_PREFIX) + 1);
+                if (!optionMap.containsKey(key)) {
+                    throw new IllegalArgumentException("Unknown option in macro " + name + ": " + key);
+                }
+            } else if (isExplicitOption(p)) {
+                for (int j = 1; j < p.length(); j++) {
+                    if (!optionMap.containsKey(p.substring(j, j + 1))) {
+                        throw new IllegalArgumentException("Unknown option in macro " + name + ": " + p.charAt(j));
+                    }
+                }
+            }
+        }
+    }
+
+    // the graph of the registered macros has no cycle, so it is enough to look for a path back to the new one
+    private boolean reaches(Set<String> references, String name, Set<String> visited) {
+        for (String reference : references) {
+            if (reference.equals(name)) {
+                return true;
+            }
+            Macro macro = macros.get(reference);
+            if (macro != null && visited.add(reference) && !mainCommands.containsKey(reference) && reaches(macro.references(), name, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int argumentOf(String token) {
+        if (token.equals(ALL_ARGUMENTS)) {
+            return ALL;
+        }
+        if (token.length() < 2 || token.charAt(0) != '$' || token.charAt(1) == '0') {
+            return LITERAL;
+        }
+        for (int i = 1; i < token.length(); i++) {
+            if (token.charAt(i) < '0' || token.charAt(i) > '9') {
+                return LITERAL;
+            }
+        }
+        return token.length() > 10 ? LITERAL : Integer.parseInt(token, 1, token.length(), 10) - 1;
+    }
+
+    private boolean isExplicitOption(String s) {
+        return s.startsWith(ParserConfig.OPTION_PREFIX);
+    }
+
+    private boolean isExplicitFullOption(String s) {
+        return s.startsWith(ParserConfig.FULL_OPTION_PREFIX);
+    }
+
+    private boolean isBlockStart(String s) {
+        return parserConfig.blockChars().length() == 2 && s.length() == 1 && parserConfig.blockChars().charAt(0) == s.charAt(0);
+    }
+
+    private boolean isBlockEnd(String s) {
+        return parserConfig.blockChars().length() == 2 && s.length() == 1 && parserConfig.blockChars().charAt(1) == s.charAt(0);
+    }
+}
@@ -1,5 +1,6 @@
 package com.jvcats.cli;
 
+import java.time.Duration;
 
 /**
  * This interface defines the configuration of a parser.
@@ -17,6 +18,8 @@ public interface ParserConfig {
 
     String NO_BLOCK_CHARS = "";
 
+    String NO_OPERATOR = "";
+
     String OPTION_PREFIX = "-";
 
     String FULL_OPTION_PREFIX = "--";
@@ -67,6 +70,7 @@ public interface ParserConfig {
 
     /**
      * Sets the disposal for an unknown command.
+     * It is not called if a diagnostics channel is set on the parser.
      *
      * @param part the unknown command.
      */
@@ -76,6 +80,7 @@ public interface ParserConfig {
 
     /**
      * Sets the disposal for an unknown option.
+     * It is not called if a diagnostics channel is set on the parser.
      *
      * @param part the unknown option.
      */
@@ -83,6 +88,16 @@ public interface ParserConfig {
         System.out.println("Unknown option: " + part);
     }
 
+    /**
+     * Sets the disposal for an invocation of a macro with a wrong number of arguments.
+     * It is not called if a diagnostics channel is set on the parser.
+     *
+     * @param part the name of the macro.
+     */
+    default void handleIllegalMacroArguments(String part) throws Exception {
+        System.out.println("Wrong number of arguments for macro: " + part);
+    }
+
     /**
      * Sets the block characters for the command tree.
      * The string contains two characters(e.g. '{' and '}'), which are used to define a block of commands.
@@ -93,4 +108,98 @@ public interface ParserConfig {
     default String blockChars() {
         return NO_BLOCK_CHARS;
     }
+
+    /**
+     * Sets the operator that ends a statement and executes the next statement only if this one completes (e.g. "&&").
+     * A statement fails if one of its tasks or a statement of its block throws an exception. A skipped statement is not executed
+     * with its block, and the next operator refers to the last statement that was executed. The statements are parsed and validated
+     * whether they are executed or not. An operator at the start of a block refers to the statement owning the block,
+     * and an operator after a block refers to that statement too, which fails if a statement of the block failed.
+     * The default operator is an empty string, which means no operator is used.
+     *
+     * @return the and operator.
+     */
+    default String andOperator() {
+        return NO_OPERATOR;
+    }
+
+    /**
+     * Sets the operator that ends a statement and executes the next statement only if this one fails (e.g. "||").
+     * It works like andOperator(), and the failure is not thrown if the next statement is executed and completes.
+     * The default operator is an empty string, which means no operator is used.
+     *
+     * @return the or operator.
+     */
+    default String orOperator() {
+        return NO_OPERATOR;
+    }
+
+    /**
+     * Sets whether equal arguments should share one string instance within a prepared command line.
+     * This reduces the memory of large command trees with many repeated arguments at the cost of a lookup per argument.
+     * The default value is false.
+     *
+     * @return whether the arguments should be deduplicated.
+     */
+    default boolean deduplicateArguments() {
+        return false;
+    }
+
+    /**
+     * Sets whether the prepared commands should be stored in a CompactCommandTree, which keeps the statements in primitive arrays
+     * instead of command objects. This reduces the memory of large command trees to a fraction, but the names, options and arguments
+     * of the prepared statements are read-only, each statement is created by the command factory when it is executed,
+     * and the statements are not coalesced. The default value is false.
+     *
+     * @return whether the command tree should be compact.
+     */
+    default boolean compactCommandTree() {
+        return false;
+    }
+
+    /**
+     * Sets whether the prepared commands should be stored in a PersistentCommandTree, whose snapshots share the unchanged commands with it.
+     * A snapshot of the prepared commands can then be taken without copying them, e.g. to hand them to another thread,
+     * but each statement is created by the command factory when it is executed, and the statements are not coalesced.
+     * It cannot be combined with compactCommandTree(). The default value is false.
+     *
+     * @return whether the command tree should be persistent.
+     */
+    default boolean persistentCommandTree() {
+        return false;
+    }
+
+    /**
+     * Sets whether references to variables in the form ${name} are expanded in the arguments, each time a task reads them.
+     * A reference is kept in one token even if the block characters are braces, and $${ stands for a literal ${.
+     * A variable is looked up in the block scopes of the running commands first, which tasks can set through VariableScope.current(),
+     * and then in the variable source of the parser. The default value is false.
+     *
+     * @return whether variable references should be expanded.
+     */
+    default boolean variableReferences() {
+        return false;
+    }
+
+    /**
+     * Sets whether the tokenizer should look for special characters with the vector API, which compares several characters per step.
+     * It only takes effect if the library was built with the vector profile and the jdk.incubator.vector module is added to the JVM
+     * (--add-modules jdk.incubator.vector), otherwise the scalar scanner is used.
+     * This is mostly useful for long arguments. The default value is false.
+     *
+     * @return whether the vector API should be used for tokenizing.
+     */
+    default boolean vectorizedScanning() {
+        return false;
+    }
+
+    /**
+     * Sets how long the candidates of an argument completer are reused for the same command, option and prefix.
+     * The default time is 30 seconds.
+     *
+     * @return the time to live of cached argument candidates.
+     */
+    default Duration completionCacheTtl() {
+        return Duration.ofSeconds(30);
+    }
 }
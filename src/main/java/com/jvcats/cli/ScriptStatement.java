@@ -0,0 +1,21 @@
+package com.jvcats.cli;
+
+import java.util.List;
+
+/**
+ * This record is a top-level statement of a watched script together with the statements of its block and the statements chained to it by operators.
+ *
+ * @param line       The line number where the statement starts, starting from 1.
+ * @param statements The tokens of the statement, followed by the block characters and the statements of its block if it has one, and the operators and statements chained to it.
+ */
+public record ScriptStatement(int line, List<List<String>> statements) {
+
+    /**
+     * Returns the main command name of the statement.
+     *
+     * @return The main command name.
+     */
+    public String command() {
+        return statements.getFirst().getFirst();
+    }
+}
@@ -0,0 +1,476 @@
+package com.jvcats.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * The script watcher keeps a script file applied to a parser. The whole script is executed when the watcher is started, and whenever
+ * the file changes only the statements that were added or modified are executed, while the removal handler is called for the removed ones.
+ * <p>
+ * The unit of change is a top-level statement together with its block and the statements chained to it by operators, and each one is
+ * executed on its own. The script is kept as regions of lines that start outside of any statement, quote, block or chain, so a change is
+ * tokenized again from the region before it up to the first unchanged region that starts in the same state, and only the statements of
+ * those regions are compared. A statement that only moved
+ * or whose formatting changed is not executed again. The removal handler is called for every statement that is not in the script anymore,
+ * also if it was modified, and the modification handler pairs the removed statements with the added statements of the same command.
+ * <p>
+ * The changes are applied with the given parser, which should not be used by other threads while the watcher is running.
+ */
+public final class ScriptWatcher implements AutoCloseable {
+    public static final Duration DEFAULT_SETTLE_DELAY = Duration.ofMillis(100);
+    private final CommandParser parser;
+    private final ParserConfig parserConfig;
+    private final Path script;
+    private final long settleMillis;
+    private final List<Region> regions = new ArrayList<>();
+    // the script as last applied, with the offsets of its lines followed by its length
+    private byte[] content = new byte[0];
+    private int[] lineStarts = {0};
+    private volatile Consumer<ScriptStatement> removalHandler = statement -> {
+    };
+    private volatile BiConsumer<ScriptStatement, ScriptStatement> modificationHandler = (removed, added) -> {
+    };
+    private volatile BiConsumer<ScriptStatement, Exception> errorHandler = (statement, e) ->
+            System.out.println(statement == null ? "Script could not be read: " + e : "Script statement failed at line " + statement.line() + ": " + e);
+    private WatchService watchService;
+    private volatile boolean closed;
+
+    /**
+     * A range of lines starting with a top-level statement, with the statements starting in it. It ends where the next region starts.
+     */
+    private static final class Region {
+        int from;
+        final List<Unit> units = new ArrayList<>();
+
+        Region(int from) {
+            this.from = from;
+        }
+    }
+
+    /**
+     * A top-level statement with its block, at a line relative to the start of its region.
+     */
+    private record Unit(Region region, int offset, List<List<String>> statements) {
+
+        ScriptStatement toStatement() {
+            return new ScriptStatement(region.from + offset + 1, statements);
+        }
+    }
+
+    /**
+     * Creates a watcher for the given script, waiting for the default settle delay of 100 milliseconds after a change.
+     *
+     * @param parser The parser to execute the statements with.
+     * @param script The script file.
+     */
+    public ScriptWatcher(CommandParser parser, Path script) {
+        this(parser, script, DEFAULT_SETTLE_DELAY);
+    }
+
+    /**
+     * Creates a watcher for the given script.
+     *
+     * @param parser      The parser to execute the statements with.
+     * @param script      The script file.
+     * @param settleDelay The time without further changes after which a change is applied, as editors may write a file in several steps.
+     */
+    public ScriptWatcher(CommandParser parser, Path script, Duration settleDelay) {
+        if (settleDelay.isNegative()) {
+            throw new IllegalArgumentException("Settle delay must not be negative: " + settleDelay);
+        }
+        this.parser = parser;
+        this.parserConfig = parser.parserConfig();
+        this.script = script.toAbsolutePath();
+        this.settleMillis = settleDelay.toMillis();
+    }
+
+    /**
+     * Sets the handler called for each removed statement, the last one first. It is called before the new statements are executed.
+     *
+     * @param removalHandler The removal handler.
+     */
+    public void setRemovalHandler(Consumer<ScriptStatement> removalHandler) {
+        this.removalHandler = removalHandler;
+    }
+
+    /**
+     * Sets the handler called for each removed statement that is replaced by an added statement of the same command, in the order of the added ones.
+     * It is called after the removal handler and before the new statements are executed.
+     *
+     * @param modificationHandler The modification handler, called with the removed and the added statement.
+     */
+    public void setModificationHandler(BiConsumer<ScriptStatement, ScriptStatement> modificationHandler) {
+        this.modificationHandler = modificationHandler;
+    }
+
+    /**
+     * Sets the handler of the exceptions thrown by the statements. The other statements of a change are executed anyway.
+     *
+     * @param errorHandler The error handler, called with a null statement if the script could not be read.
+     */
+    public void setErrorHandler(BiConsumer<ScriptStatement, Exception> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Applies the script and starts watching it for changes.
+     *
+     * @throws IOException If the directory of the script cannot be watched.
+     */
+    public synchronized void start() throws IOException {
+        if (watchService != null) {
+            throw new IllegalStateException("The watcher is already started");
+        }
+        if (closed) {
+            throw new IllegalStateException("The watcher is closed");
+        }
+        refresh();
+        Path directory = script.getParent();
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread.ofPlatform().daemon().name("script-watcher-" + script.getFileName()).start(this::watch);
+    }
+
+    /**
+     * Reads the script and applies its changes since the last time it was applied. It is called by the watcher when the file changes,
+     * but can also be called directly, e.g. to apply the script without watching it.
+     *
+     * @throws IOException If the script cannot be read.
+     */
+    public synchronized void refresh() throws IOException {
+        byte[] newContent;
+        try {
+            newContent = Files.readAllBytes(script);
+        } catch (NoSuchFileException e) {
+            // the file is being replaced, it is applied again when it is created
+            return;
+        }
+        apply(newContent);
+    }
+
+    /**
+     * Returns the number of top-level statements of the script as last applied.
+     *
+     * @return The number of statements.
+     */
+    public synchronized int statementCount() {
+        int count = 0;
+        for (Region region : regions) {
+            count += region.units.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+        }
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    private void watch() {
+        Path name = script.getFileName();
+        while (!closed) {
+            try {
+                boolean changed = concerns(watchService.take(), name);
+                WatchKey next;
+                while ((next = watchService.poll(settleMillis, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= concerns(next, name);
+                }
+                if (changed && !closed) {
+                    refresh();
+                }
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                errorHandler.accept(null, e);
+            }
+        }
+    }
+
+    private static boolean concerns(WatchKey key, Path name) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void apply(byte[] newContent) {
+        // the unchanged lines are found on the bytes, so only the changed lines are decoded
+        int prefixBytes = Arrays.mismatch(content, newContent);
+        if (prefixBytes < 0) {
+            return;
+        }
+        int suffixBytes = commonSuffix(content, newContent, Math.min(content.length, newContent.length) - prefixBytes);
+        int oldCount = lineStarts.length - 1;
+        // the lines before the one containing the first changed byte are unchanged
+        int prefix = lineAt(lineStarts, oldCount, prefixBytes);
+        if (prefix == oldCount && oldCount > 0 && content[content.length - 1] != '\n') {
+            // the text is appended to the last line
+            prefix--;
+        }
+        // the lines are unchanged from the first one whose preceding line break is unchanged too
+        int suffixStart = lineAt(lineStarts, oldCount, content.length - suffixBytes) + 1;
+        int byteDelta = newContent.length - content.length;
+        int[] newStarts = lineStarts(newContent, prefix, suffixStart, byteDelta);
+        int newCount = newStarts.length - 1;
+        int delta = newCount - oldCount;
+        int newEnd = Math.min(suffixStart, oldCount) + delta;
+
+        // the region before the change is tokenized again too, as a block opened by the change may belong to its last statement
+        int first = Math.max(0, regionAt(prefix) - 1);
+        int start = regions.isEmpty() ? 0 : regions.get(first).from;
+        List<Region> scanned = new ArrayList<>();
+        int kept = scan(newContent, newStarts, start, newEnd, delta, first, scanned);
+
+        List<Unit> oldUnits = new ArrayList<>();
+        for (int i = first; i < kept; i++) {
+            oldUnits.addAll(regions.get(i).units);
+        }
+        List<Unit> newUnits = new ArrayList<>();
+        for (Region region : scanned) {
+            newUnits.addAll(region.units);
+        }
+
+        regions.subList(first, kept).clear();
+        regions.addAll(first, scanned);
+        for (int i = first + scanned.size(); i < regions.size(); i++) {
+            regions.get(i).from += delta;
+        }
+        content = newContent;
+        lineStarts = newStarts;
+
+        List<Unit> changed = diff(oldUnits, newUnits);
+        for (Unit unit : changed) {
+            try {
+                parser.runStatements(unit.statements());
+            } catch (Exception e) {
+                errorHandler.accept(unit.toStatement(), e);
+            }
+        }
+    }
+
+    private static int commonSuffix(byte[] a, byte[] b, int max) {
+        int length = 0;
+        // compare pages from the end, then the bytes of the first page that differs
+        while (length < max) {
+            int size = Math.min(4096, max - length);
+            if (Arrays.mismatch(a, a.length - length - size, a.length - length, b, b.length - length - size, b.length - length) < 0) {
+                length += size;
+                continue;
+            }
+            while (a[a.length - length - 1] == b[b.length - length - 1]) {
+                length++;
+            }
+            break;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the line containing the given offset, or the number of lines if the offset is at the end.
+     */
+    private static int lineAt(int[] starts, int count, int offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Computes the line offsets of the new content, reusing the ones of the unchanged lines before and after the change.
+     */
+    private int[] lineStarts(byte[] newContent, int prefix, int suffixStart, int byteDelta) {
+        int oldCount = lineStarts.length - 1;
+        int tail = Math.max(0, oldCount - suffixStart);
+        int scanTo = tail > 0 ? lineStarts[suffixStart] + byteDelta : newContent.length;
+        int[] starts = new int[prefix + tail + 64];
+        System.arraycopy(lineStarts, 0, starts, 0, prefix);
+        int count = prefix;
+        int from = lineStarts[prefix];
+        if (from < scanTo) {
+            starts[count++] = from;
+        }
+        for (int i = from; i < scanTo; i++) {
+            if (newContent[i] == '\n' && i + 1 < scanTo) {
+                if (count + tail + 1 >= starts.length) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        for (int i = suffixStart; i < oldCount; i++) {
+            starts[count++] = lineStarts[i] + byteDelta;
+        }
+        // the last offset is the end of the content
+        starts[count] = newContent.length;
+        return Arrays.copyOf(starts, count + 1);
+    }
+
+    private static String line(byte[] content, int[] starts, int line) {
+        int from = starts[line];
+        int to = starts[line + 1];
+        while (to > from && (content[to - 1] == '\n' || content[to - 1] == '\r')) {
+            to--;
+        }
+        return new String(content, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tokenizes the lines from the given start until an unchanged region of the previous script is reached in the same state.
+     *
+     * @return The index of the first region of the previous script that is kept.
+     */
+    private int scan(byte[] newContent, int[] newStarts, int start, int newEnd, int delta, int first, List<Region> scanned) {
+        Tokenizer tokenizer = new Tokenizer(parserConfig);
+        List<List<String>> parts = new ArrayList<>();
+        List<String> remaining = new ArrayList<>();
+        Region region = new Region(start);
+        scanned.add(region);
+        List<List<String>> unit = null;
+        int depth = 0;
+        // a statement after an operator belongs to the same unit, as its execution depends on the statement before
+        boolean chained = false;
+        for (int line = start; line < newStarts.length - 1; line++) {
+            boolean clean = depth == 0 && remaining.isEmpty() && !tokenizer.isInQuotes() && !chained;
+            if (clean && line > start && line >= newEnd) {
+                int old = regionStartingAt(line - delta);
+                if (old >= first) {
+                    return old;
+                }
+            }
+            tokenizer.tokenize(line(newContent, newStarts, line), line + 1, parts, remaining);
+            boolean firstInLine = true;
+            for (List<String> statement : parts) {
+                if (statement.isEmpty()) {
+                    continue;
+                }
+                boolean blockStart = isBlockStart(statement);
+                boolean blockEnd = isBlockEnd(statement);
+                boolean operator = tokenizer.isOperator(statement.getFirst()) && statement.size() == 1;
+                boolean topLevel = depth == 0 && !blockStart && !blockEnd && !operator && !chained;
+                // a top-level statement at the start of a line starts a region, a block never does as it may belong to the statement before
+                if (topLevel && clean && firstInLine && line > region.from) {
+                    region = new Region(line);
+                    scanned.add(region);
+                }
+                if (unit == null || topLevel) {
+                    unit = new ArrayList<>();
+                    region.units.add(new Unit(region, line - region.from, unit));
+                }
+                firstInLine = false;
+                chained = depth == 0 && operator;
+                unit.add(List.copyOf(statement));
+                if (blockStart) {
+                    depth++;
+                } else if (blockEnd && depth > 0) {
+                    depth--;
+                }
+            }
+            parts.clear();
+        }
+        return regions.size();
+    }
+
+    /**
+     * Returns the statements to execute, and calls the removal handler for the removed ones and the modification handler for the replaced ones.
+     */
+    private List<Unit> diff(List<Unit> oldUnits, List<Unit> newUnits) {
+        Map<List<List<String>>, Deque<Unit>> unchanged = new HashMap<>();
+        for (Unit unit : oldUnits) {
+            unchanged.computeIfAbsent(unit.statements(), k -> new ArrayDeque<>()).add(unit);
+        }
+        Set<Unit> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Unit> changed = new ArrayList<>();
+        for (Unit unit : newUnits) {
+            Deque<Unit> same = unchanged.get(unit.statements());
+            if (same != null && !same.isEmpty()) {
+                matched.add(same.poll());
+            } else {
+                changed.add(unit);
+            }
+        }
+        Map<String, Deque<Unit>> replaced = new HashMap<>();
+        for (Unit unit : oldUnits) {
+            if (!matched.contains(unit)) {
+                replaced.computeIfAbsent(command(unit), k -> new ArrayDeque<>()).add(unit);
+            }
+        }
+        for (int i = oldUnits.size() - 1; i >= 0; i--) {
+            if (!matched.contains(oldUnits.get(i))) {
+                removalHandler.accept(oldUnits.get(i).toStatement());
+            }
+        }
+        for (Unit unit : changed) {
+            Deque<Unit> previous = replaced.get(command(unit));
+            if (previous != null && !previous.isEmpty()) {
+                modificationHandler.accept(previous.poll().toStatement(), unit.toStatement());
+            }
+        }
+        return changed;
+    }
+
+    private static String command(Unit unit) {
+        return unit.statements().getFirst().getFirst();
+    }
+
+    /**
+     * Returns the index of the region containing the given line, or 0 if there is none.
+     */
+    private int regionAt(int line) {
+        int low = 0;
+        int high = regions.size() - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (regions.get(mid).from <= line) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private int regionStartingAt(int line) {
+        int index = regionAt(line);
+        return index < regions.size() && regions.get(index).from == line ? index : -1;
+    }
+
+    private boolean isBlockStart(List<String> statement) {
+        return isBlockChar(statement, 0);
+    }
+
+    private boolean isBlockEnd(List<String> statement) {
+        return isBlockChar(statement, 1);
+    }
+
+    private boolean isBlockChar(List<String> statement, int index) {
+        String token = statement.getFirst();
+        return parserConfig.blockChars().length() == 2 && statement.size() == 1 && token.length() == 1
+                && parserConfig.blockChars().charAt(index) == token.charAt(0);
+    }
+}
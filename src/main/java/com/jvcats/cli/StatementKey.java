@@ -0,0 +1,47 @@
+package com.jvcats.cli;
+
+import com.jvcats.cli.cmd.Command;
+import com.jvcats.cli.cmd.OptionAdapter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This record is the normalized form of a statement used to find identical statements.
+ * The options are in the order they are executed, i.e. by descending priority and in the order of the command line for the same priority,
+ * so statements whose options only differ in the order of options with different priorities have the same key.
+ * Each option is followed by its arguments in the given order.
+ *
+ * @param command The main command name.
+ * @param options The options, each as a list of the option name followed by its arguments.
+ */
+public record StatementKey(String command, List<List<String>> options) {
+
+    /**
+     * Creates the key of the given statement. Its children are not part of the key.
+     *
+     * @param statement     The statement, with the canonical names of the command and options as set by the parser.
+     * @param optionAdapter The options of the main command of the statement.
+     * @return The key, or null if the statement has duplicate options, which cannot be told apart by name.
+     */
+    public static StatementKey of(Command statement, OptionAdapter optionAdapter) {
+        List<String> names = statement.getOptions();
+        Set<String> seen = new HashSet<>();
+        List<List<String>> options = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (!seen.add(name)) {
+                return null;
+            }
+            List<String> option = new ArrayList<>();
+            option.add(name);
+            option.addAll(statement.getArguments(name));
+            options.add(List.copyOf(option));
+        }
+        // the sort is stable, so the options of the same priority keep the order they run in
+        options.sort(Comparator.comparingInt((List<String> option) -> optionAdapter.get(option.getFirst()).priority()).reversed());
+        return new StatementKey(statement.getName(), List.copyOf(options));
+    }
+}
@@ -0,0 +1,31 @@
+package com.jvcats.cli;
+
+/**
+ * The scalar char scanner, which looks up every character in a bit table.
+ */
+class TableCharScanner implements CharScanner {
+    private final long[] outside = new long[1024];
+    private final long[] inside = new long[1024];
+
+    TableCharScanner(char[] outsideChars, char[] insideChars) {
+        for (char c : outsideChars) {
+            outside[c >>> 6] |= 1L << c;
+        }
+        for (char c : insideChars) {
+            inside[c >>> 6] |= 1L << c;
+        }
+    }
+
+    @Override
+    public int next(String line, int from, boolean inQuotes) {
+        long[] table = inQuotes ? inside : outside;
+        int length = line.length();
+        for (int i = from; i < length; i++) {
+            char c = line.charAt(i);
+            if ((table[c >>> 6] & (1L << c)) != 0) {
+                return i;
+            }
+        }
+        return length;
+    }
+}
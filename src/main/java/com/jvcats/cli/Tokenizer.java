@@ -0,0 +1,354 @@
+package com.jvcats.cli;
+
+import com.jvcats.cli.jfr.TokenizeEvent;
+
+import java.util.*;
+
+/**
+ * The tokenizer splits command lines into statements of tokens. It keeps the quoting state between lines.
+ * The positions of the tokens can be tracked by identity for reporting diagnostics.
+ */
+class Tokenizer {
+    private final ParserConfig parserConfig;
+    private final CharScanner scanner;
+    private final Deque<Character> inQuotes = new ArrayDeque<>();
+    private final Map<String, Long> tokenPositions = new IdentityHashMap<>();
+    private boolean trackingPositions;
+
+    Tokenizer(ParserConfig parserConfig) {
+        this.parserConfig = parserConfig;
+        this.scanner = CharScanner.create(parserConfig);
+    }
+
+    /**
+     * Sets whether the positions of the tokens should be recorded.
+     *
+     * @param trackingPositions Whether the positions should be recorded.
+     */
+    void setTrackingPositions(boolean trackingPositions) {
+        this.trackingPositions = trackingPositions;
+        tokenPositions.clear();
+    }
+
+    /**
+     * Forgets the positions recorded so far.
+     */
+    void clearPositions() {
+        tokenPositions.clear();
+    }
+
+    /**
+     * Returns the position of the given token, packed as the line number in the high and the column in the low 32 bits.
+     *
+     * @param token The token returned by this tokenizer.
+     * @return The position, or 0 if unknown.
+     */
+    long positionOf(String token) {
+        Long position = tokenPositions.get(token);
+        return position == null ? 0 : position;
+    }
+
+    static int lineOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    static int columnOf(long position) {
+        return (int) position;
+    }
+
+    /**
+     * Records the position of a token produced by another tokenizer.
+     *
+     * @param token    The token.
+     * @param position The packed position.
+     */
+    void recordPosition(String token, long position) {
+        if (trackingPositions && position != 0) {
+            tokenPositions.put(token, position);
+        }
+    }
+
+    /**
+     * Returns a copy of the open quotes, the innermost one first.
+     *
+     * @return The open quotes.
+     */
+    Deque<Character> quoteState() {
+        return new ArrayDeque<>(inQuotes);
+    }
+
+    /**
+     * Replaces the open quotes, e.g. to continue the work of another tokenizer.
+     *
+     * @param quotes The open quotes, the innermost one first.
+     */
+    void restoreQuoteState(Deque<Character> quotes) {
+        inQuotes.clear();
+        inQuotes.addAll(quotes);
+    }
+
+    /**
+     * Checks if the tokenizer is inside a quoted token.
+     *
+     * @return True if a quote is open, false otherwise.
+     */
+    boolean isInQuotes() {
+        return !inQuotes.isEmpty();
+    }
+
+    /**
+     * Splits the line into statements and appends the complete ones to the given list.
+     * The unfinished statement of the previous line is taken from remaining, and the unfinished statement of this line is put back into it.
+     *
+     * @param args          The command line.
+     * @param lineNumber    The line number used for the positions of the tokens.
+     * @param commandsParts The list to append the statements to.
+     * @param remaining     The unfinished statement.
+     */
+    void tokenize(String args, int lineNumber, List<List<String>> commandsParts, List<String> remaining) {
+        if (args == null || args.isBlank()) {
+            return;
+        }
+        TokenizeEvent event = new TokenizeEvent();
+        // the list may already hold the statements of previous lines, which are not counted again
+        int first = commandsParts.size();
+        event.begin();
+        scan(args, lineNumber, commandsParts, remaining);
+        event.end();
+        if (event.shouldCommit()) {
+            int tokens = 0;
+            for (int i = first; i < commandsParts.size(); i++) {
+                tokens += commandsParts.get(i).size();
+            }
+            event.set(lineNumber, args.length(), commandsParts.size() - first, tokens);
+            event.commit();
+        }
+    }
+
+    private void scan(String args, int lineNumber, List<List<String>> commandsParts, List<String> remaining) {
+        List<String> result = new ArrayList<>(remaining);
+        remaining.clear();
+
+        // allow a command to be split into multiple lines if EOS is specified
+        // need to add a delimiter to the beginning of next line if handling a new token
+        // or the new token will be combined with previous one
+        String continued = result.isEmpty() ? null : result.removeLast();
+        StringBuilder currentElement = continued == null ? new StringBuilder() : new StringBuilder(continued);
+        // the continued token keeps the position it had on the previous line
+        long elementPosition = continued == null ? 0 : positionOf(continued);
+
+        for (int i = 0; i < args.length(); i++) {
+            // copy the characters up to the next special one at once
+            int next = scanner.next(args, i, !inQuotes.isEmpty());
+            if (next > i) {
+                if (currentElement.isEmpty()) {
+                    elementPosition = position(lineNumber, i);
+                }
+                currentElement.append(args, i, next);
+                i = next - 1;
+                continue;
+            }
+            char c = args.charAt(i);
+
+            if (c == '\n' || c == '\r') {
+                // ignore new line characters
+                continue;
+            }
+
+            if (takeCareOfQuote(c, true)) {
+                switchInQuotes(c);
+                if (currentElement.isEmpty()) {
+                    elementPosition = position(lineNumber, i);
+                }
+                currentElement.append(c);
+                if (inQuotes.isEmpty()) {
+                    addToken(result, currentElement.toString().trim(), elementPosition);
+                    currentElement.setLength(0);
+                }
+                continue;
+            }
+
+            int referenceEnd = inQuotes.isEmpty() ? referenceEnd(args, i) : -1;
+            if (referenceEnd > 0) {
+                // the braces of a reference are not block characters
+                if (currentElement.isEmpty()) {
+                    elementPosition = position(lineNumber, i);
+                }
+                currentElement.append(args, i, referenceEnd);
+                i = referenceEnd - 1;
+                continue;
+            }
+
+            if (isBlockStart(c) && inQuotes.isEmpty()) {
+                if (!currentElement.isEmpty()) {
+                    addToken(result, currentElement.toString().trim(), elementPosition);
+                    currentElement.setLength(0);
+                }
+                if (!result.isEmpty()) {
+                    commandsParts.add(result);
+                    result = new ArrayList<>();
+                }
+                commandsParts.add(List.of(blockToken(c, lineNumber, i)));
+                continue;
+            }
+
+            if (isBlockEnd(c) && inQuotes.isEmpty()) {
+                commandsParts.add(List.of(blockToken(c, lineNumber, i)));
+                continue;
+            }
+
+            if (c == parserConfig.escape()) {
+                if (i + 1 < args.length()) {
+                    char t = args.charAt(i + 1);
+                    if (currentElement.isEmpty()) {
+                        elementPosition = position(lineNumber, i);
+                    }
+                    if (takeCareOfQuote(t, false) && t != parserConfig.escape())
+                        currentElement.append(c);
+                    currentElement.append(t);
+                    i++;
+                }
+                continue;
+            }
+
+            String operator = inQuotes.isEmpty() ? operatorAt(args, i) : null;
+            if (operator != null) {
+                // an operator ends the statement and is a statement of its own, like a block character
+                if (!currentElement.isEmpty()) {
+                    addToken(result, currentElement.toString().trim(), elementPosition);
+                    currentElement.setLength(0);
+                }
+                if (!result.isEmpty()) {
+                    commandsParts.add(result);
+                    result = new ArrayList<>();
+                }
+                commandsParts.add(List.of(singleToken(args.substring(i, i + operator.length()), lineNumber, i)));
+                i += operator.length() - 1;
+                continue;
+            }
+
+            if ((c == parserConfig.delimiter() || takeCareOfEOS(c, true)) && inQuotes.isEmpty()) {
+                if (!currentElement.isEmpty()) {
+                    addToken(result, currentElement.toString().trim(), elementPosition);
+                    currentElement.setLength(0);
+                }
+                if (takeCareOfEOS(c, true) && !result.isEmpty()) {
+                    commandsParts.add(result);
+                    result = new ArrayList<>();
+                }
+            } else if (!inQuotes.isEmpty() || c != ' ') {
+                if (currentElement.isEmpty()) {
+                    elementPosition = position(lineNumber, i);
+                }
+                currentElement.append(c);
+            }
+        }
+
+        if (!currentElement.isEmpty()) {
+            addToken(result, currentElement.toString().trim(), elementPosition);
+        }
+
+        if (parserConfig.endOfStatement() == ParserConfig.NO_EOS) {
+            // nothing is left after a line ending with a block character or an operator
+            if (!result.isEmpty()) {
+                commandsParts.add(result);
+            }
+        } else {
+            if (!result.isEmpty()) {
+                remaining.addAll(result);
+            }
+        }
+
+    }
+
+    private void addToken(List<String> result, String token, long position) {
+        if (trackingPositions) {
+            tokenPositions.put(token, position);
+        }
+        result.add(token);
+    }
+
+    private String blockToken(char c, int lineNumber, int index) {
+        return singleToken(String.valueOf(c), lineNumber, index);
+    }
+
+    private String singleToken(String token, int lineNumber, int index) {
+        if (trackingPositions) {
+            tokenPositions.put(token, position(lineNumber, index));
+        }
+        return token;
+    }
+
+    private String operatorAt(String args, int index) {
+        String and = parserConfig.andOperator();
+        String or = parserConfig.orOperator();
+        // the longer operator is tried first in case one is a prefix of the other
+        String first = and.length() >= or.length() ? and : or;
+        String second = first == and ? or : and;
+        if (!first.isEmpty() && args.startsWith(first, index)) {
+            return first;
+        }
+        if (!second.isEmpty() && args.startsWith(second, index)) {
+            return second;
+        }
+        return null;
+    }
+
+    private int referenceEnd(String args, int index) {
+        if (!parserConfig.variableReferences() || !args.startsWith("${", index)) {
+            return -1;
+        }
+        for (int i = index + 2; i < args.length(); i++) {
+            char c = args.charAt(i);
+            if (c == '}') {
+                return i > index + 2 ? i + 1 : -1;
+            }
+            if (c == ' ' || c == '$' || c == '{' || c == parserConfig.delimiter() || takeCareOfEOS(c, true) || takeCareOfQuote(c, true)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the token is one of the operators, which the tokenizer returns as a statement of its own.
+     *
+     * @param token The first token of a statement.
+     * @return True if the token is an operator, false otherwise.
+     */
+    boolean isOperator(String token) {
+        return !token.isEmpty() && (token.equals(parserConfig.andOperator()) || token.equals(parserConfig.orOperator()));
+    }
+
+    private static long position(int lineNumber, int index) {
+        return ((long) lineNumber << 32) | (index + 1);
+    }
+
+    private boolean takeCareOfQuote(char q, boolean want) {
+        return !parserConfig.quotes().isEmpty() && (want == (parserConfig.quotes().indexOf(q) >= 0));
+    }
+
+    private void switchInQuotes(char q) {
+        if (!inQuotes.isEmpty() && inQuotes.peek() == q) {
+            inQuotes.pop();
+        } else {
+            inQuotes.push(q);
+        }
+    }
+
+    private boolean takeCareOfEOS(char q, boolean want) {
+        return parserConfig.endOfStatement() != ParserConfig.NO_EOS && (want == (parserConfig.endOfStatement() == q));
+    }
+
+    private boolean isBlockStart(char c) {
+        return usingBlockStructure() && parserConfig.blockChars().charAt(0) == c;
+    }
+
+    private boolean isBlockEnd(char c) {
+        return usingBlockStructure() && parserConfig.blockChars().charAt(1) == c;
+    }
+
+    private boolean usingBlockStructure() {
+        return parserConfig.blockChars().length() == 2;
+    }
+}
@@ -0,0 +1,193 @@
+package com.jvcats.cli;
+
+import com.jvcats.cli.cmd.MainCommand;
+import com.jvcats.cli.cmd.MainCommandAdapter;
+import com.jvcats.cli.cmd.OptionAdapter;
+import com.jvcats.cli.diag.Diagnostic;
+import com.jvcats.cli.diag.Diagnostics;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The validator checks command lines against the registered commands and the block structure without creating any command.
+ * Large scripts are split into chunks of lines which are validated concurrently, with the same result as a sequential run.
+ */
+class Validator {
+    private final MainCommandAdapter mainCommands;
+    private final ParserConfig parserConfig;
+    private final Macros macros;
+
+    private record BlockMark(long position, int line, int statementIndex) {
+    }
+
+    private static final class ValidatedChunk extends Chunk {
+        private final List<Diagnostic> diagnostics = new ArrayList<>();
+        // block ends without a start in this chunk, and block starts without an end in this chunk
+        private final List<BlockMark> unmatchedEnds = new ArrayList<>();
+        private final List<BlockMark> openBlocks = new ArrayList<>();
+
+        private ValidatedChunk(int from, int to) {
+            super(from, to);
+        }
+    }
+
+    Validator(MainCommandAdapter mainCommands, ParserConfig parserConfig, Macros macros) {
+        this.mainCommands = mainCommands;
+        this.parserConfig = parserConfig;
+        this.macros = macros;
+    }
+
+    /**
+     * Validates the lines.
+     *
+     * @param lines The command lines.
+     * @param pool  The pool to validate the chunks on, or null to validate sequentially.
+     * @return All diagnostics in the order of the lines, followed by the ones for the block structure and the end of the script.
+     */
+    List<Diagnostic> validate(List<String> lines, ForkJoinPool pool) {
+        return merge(Chunk.scanAll(lines.size(), pool, null, (from, to, previous) -> scan(lines, from, to, previous)));
+    }
+
+    private List<Diagnostic> merge(List<ValidatedChunk> chunks) {
+        List<Diagnostic> result = new ArrayList<>();
+        Deque<BlockMark> openBlocks = new ArrayDeque<>();
+        List<BlockMark> unexpectedEnds = new ArrayList<>();
+        for (ValidatedChunk chunk : chunks) {
+            result.addAll(chunk.diagnostics);
+            for (BlockMark end : chunk.unmatchedEnds) {
+                if (openBlocks.isEmpty()) {
+                    unexpectedEnds.add(end);
+                } else {
+                    openBlocks.pop();
+                }
+            }
+            for (BlockMark start : chunk.openBlocks) {
+                openBlocks.push(start);
+            }
+        }
+        for (BlockMark end : unexpectedEnds) {
+            result.add(blockDiagnostic(Diagnostic.Kind.UNEXPECTED_BLOCK_END, end, parserConfig.blockChars().charAt(1)));
+        }
+        Iterator<BlockMark> starts = openBlocks.descendingIterator();
+        while (starts.hasNext()) {
+            result.add(blockDiagnostic(Diagnostic.Kind.UNCLOSED_BLOCK, starts.next(), parserConfig.blockChars().charAt(0)));
+        }
+        if (!chunks.isEmpty()) {
+            ValidatedChunk last = chunks.getLast();
+            if (!last.quotes().isEmpty()) {
+                result.add(new Diagnostic(Diagnostic.Kind.UNCLOSED_QUOTE, last.to, 0, 0, String.valueOf(last.quotes().getLast()), null));
+            }
+            if (!last.remaining.isEmpty()) {
+                long position = last.remainingPosition(0);
+                result.add(new Diagnostic(Diagnostic.Kind.INCOMPLETE_STATEMENT, position == 0 ? last.to : Tokenizer.lineOf(position),
+                        Tokenizer.columnOf(position), 0, last.remaining.getFirst(), null));
+            }
+        }
+        return result;
+    }
+
+    private ValidatedChunk scan(List<String> lines, int from, int to, Chunk previous) {
+        ValidatedChunk chunk = new ValidatedChunk(from, to);
+        Tokenizer tokenizer = new Tokenizer(parserConfig);
+        tokenizer.setTrackingPositions(true);
+        chunk.continueFrom(previous, tokenizer);
+        List<String> remaining = chunk.remaining;
+        List<List<String>> statements = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            int line = i + 1;
+            tokenizer.tokenize(lines.get(i), line, statements, remaining);
+            for (int j = 0; j < statements.size(); j++) {
+                List<String> statement = statements.get(j);
+                if (statement.isEmpty()) {
+                    continue;
+                }
+                String main = statement.getFirst();
+                if (isBlockStart(main)) {
+                    chunk.openBlocks.add(new BlockMark(tokenizer.positionOf(main), line, j));
+                } else if (isBlockEnd(main)) {
+                    if (chunk.openBlocks.isEmpty()) {
+                        chunk.unmatchedEnds.add(new BlockMark(tokenizer.positionOf(main), line, j));
+                    } else {
+                        chunk.openBlocks.removeLast();
+                    }
+                } else if (!tokenizer.isOperator(main)) {
+                    checkStatement(statement, line, j, tokenizer, chunk.diagnostics);
+                }
+            }
+            statements.clear();
+            if (remaining.isEmpty()) {
+                tokenizer.clearPositions();
+            }
+        }
+        chunk.finish(tokenizer);
+        return chunk;
+    }
+
+    private void checkStatement(List<String> statement, int line, int statementIndex, Tokenizer tokenizer, List<Diagnostic> diagnostics) {
+        String main = statement.getFirst();
+        if (!mainCommands.containsKey(main) && macros.contains(main)) {
+            // the body of a macro is checked when it is registered
+            if (!macros.accepts(main, statement.size() - 1)) {
+                diagnostics.add(diagnostic(Diagnostic.Kind.ILLEGAL_MACRO_ARGUMENTS, main, main, 0, line, statementIndex, tokenizer, Set.of()));
+            }
+            return;
+        }
+        if (!mainCommands.containsKey(main)) {
+            diagnostics.add(diagnostic(Diagnostic.Kind.ILLEGAL_COMMAND, main, main, 0, line, statementIndex, tokenizer, mainCommands.names()));
+            return;
+        }
+        MainCommand mainCommand = mainCommands.get(main);
+        OptionAdapter optionMap = mainCommand.getOptions();
+        if (statement.size() == 1 || !isExplicitOption(statement.get(1))) {
+            String mainOption = mainCommand.getConfig().mainOptionName();
+            if (!optionMap.containsKey(mainOption)) {
+                diagnostics.add(diagnostic(Diagnostic.Kind.ILLEGAL_OPTION, mainOption, main, 0, line, statementIndex, tokenizer, optionMap.names()));
+            }
+        }
+        for (int i = 1; i < statement.size(); i++) {
+            String p = statement.get(i);
+            if (isExplicitFullOption(p)) {
+                int offset = p.lastIndexOf(ParserConfig.OPTION_PREFIX) + 1;
+                String key = p.substring(offset);
+                if (!optionMap.containsKey(key)) {
+                    diagnostics.add(diagnostic(Diagnostic.Kind.ILLEGAL_OPTION, key, p, offset, line, statementIndex, tokenizer, optionMap.names()));
+                }
+            } else if (isExplicitOption(p)) {
+                for (int j = 1; j < p.length(); j++) {
+                    String key = p.substring(j, j + 1);
+                    if (!optionMap.containsKey(key)) {
+                        diagnostics.add(diagnostic(Diagnostic.Kind.ILLEGAL_OPTION, key, p, j, line, statementIndex, tokenizer, optionMap.names()));
+                    }
+                }
+            }
+        }
+    }
+
+    private Diagnostic diagnostic(Diagnostic.Kind kind, String name, String token, int offset, int line, int statementIndex,
+                                  Tokenizer tokenizer, Collection<String> names) {
+        long position = tokenizer.positionOf(token);
+        return new Diagnostic(kind, position == 0 ? line : Tokenizer.lineOf(position), position == 0 ? 0 : Tokenizer.columnOf(position) + offset,
+                statementIndex, name, Diagnostics.suggest(name, names));
+    }
+
+    private Diagnostic blockDiagnostic(Diagnostic.Kind kind, BlockMark mark, char blockChar) {
+        return new Diagnostic(kind, mark.line(), Tokenizer.columnOf(mark.position()), mark.statementIndex(), String.valueOf(blockChar), null);
+    }
+
+    private boolean isExplicitOption(String s) {
+        return s.startsWith(ParserConfig.OPTION_PREFIX);
+    }
+
+    private boolean isExplicitFullOption(String s) {
+        return s.startsWith(ParserConfig.FULL_OPTION_PREFIX);
+    }
+
+    private boolean isBlockStart(String s) {
+        return parserConfig.blockChars().length() == 2 && s.length() == 1 && parserConfig.blockChars().charAt(0) == s.charAt(0);
+    }
+
+    private boolean isBlockEnd(String s) {
+        return parserConfig.blockChars().length() == 2 && s.length() == 1 && parserConfig.blockChars().charAt(1) == s.charAt(0);
+    }
+}
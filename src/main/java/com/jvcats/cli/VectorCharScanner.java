@@ -0,0 +1,56 @@
+package com.jvcats.cli;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The vectorized char scanner, which compares as many characters per step as the preferred vector size allows (e.g. 16 with AVX2).
+ * It is only loaded if the jdk.incubator.vector module is available, and falls back to the bit table for the tail of a line.
+ */
+class VectorCharScanner implements CharScanner {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private final short[] outside;
+    private final short[] inside;
+    private final TableCharScanner tail;
+    // the chars of the last line, as a tokenizer scans the same line many times
+    private String line;
+    private char[] chars;
+
+    VectorCharScanner(char[] outsideChars, char[] insideChars) {
+        outside = toShorts(outsideChars);
+        inside = toShorts(insideChars);
+        tail = new TableCharScanner(outsideChars, insideChars);
+    }
+
+    @Override
+    public int next(String line, int from, boolean inQuotes) {
+        if (line != this.line) {
+            this.line = line;
+            chars = line.toCharArray();
+        }
+        short[] specials = inQuotes ? inside : outside;
+        int step = SPECIES.length();
+        int i = from;
+        for (; i + step <= chars.length; i += step) {
+            ShortVector vector = ShortVector.fromCharArray(SPECIES, chars, i);
+            VectorMask<Short> mask = vector.compare(VectorOperators.EQ, specials[0]);
+            for (int j = 1; j < specials.length; j++) {
+                mask = mask.or(vector.compare(VectorOperators.EQ, specials[j]));
+            }
+            if (mask.anyTrue()) {
+                return i + mask.firstTrue();
+            }
+        }
+        return tail.next(line, i, inQuotes);
+    }
+
+    private static short[] toShorts(char[] chars) {
+        short[] result = new short[chars.length];
+        for (int i = 0; i < chars.length; i++) {
+            result[i] = (short) chars[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,298 @@
+package com.jvcats.cli.admission;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The admission controller limits how many statements execute at the same time, per main command and in total.
+ * A statement that cannot execute waits in a queue with bounded length; when a statement finishes, the waiting statements
+ * are admitted in arrival order, skipping the ones whose main command is still at its limit, so a flood of one command
+ * does not hold back the others. What happens when the queue is full is decided by the overflow policy.
+ * <p>
+ * Only the options of a statement are executed under its permit, its children acquire their own permits.
+ * A task that executes a statement of its own main command while the limit is 1 therefore waits forever.
+ */
+public class AdmissionController {
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queueSpace = lock.newCondition();
+    private final LinkedList<Waiter> queue = new LinkedList<>();
+    private final Map<String, Limit> limits = new HashMap<>();
+    private final Map<String, State> states = new HashMap<>();
+    private final State total = new State();
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final OverflowPolicy policy;
+
+    private record Limit(int maxConcurrent, int maxQueued) {
+    }
+
+    private static final class State {
+        private int running;
+        private int queued;
+        private long admitted;
+        private long rejected;
+        private long totalWait;
+        private long maxWait;
+
+        private AdmissionStats snapshot() {
+            return new AdmissionStats(running, queued, admitted, rejected, Duration.ofNanos(totalWait), Duration.ofNanos(maxWait));
+        }
+    }
+
+    private static final class Waiter {
+        private final String main;
+        private final long enqueuedAt = System.nanoTime();
+        private final Condition signal;
+        private boolean admitted;
+        private boolean shed;
+
+        private Waiter(String main, Condition signal) {
+            this.main = main;
+            this.signal = signal;
+        }
+    }
+
+    /**
+     * Creates a controller without a total limit; per-command limits can be set with setLimit().
+     *
+     * @param policy The overflow policy.
+     */
+    public AdmissionController(OverflowPolicy policy) {
+        this(UNLIMITED, UNLIMITED, policy);
+    }
+
+    /**
+     * Creates a controller with a total limit over all main commands.
+     *
+     * @param maxConcurrent The maximum number of statements executing at the same time.
+     * @param maxQueued     The maximum number of statements waiting.
+     * @param policy        The overflow policy.
+     */
+    public AdmissionController(int maxConcurrent, int maxQueued, OverflowPolicy policy) {
+        if (maxConcurrent < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("Invalid limits: " + maxConcurrent + ", " + maxQueued);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.policy = policy;
+    }
+
+    /**
+     * Sets the limits of a main command. The commands without limits are only limited by the total limit.
+     *
+     * @param main          The main command name.
+     * @param maxConcurrent The maximum number of statements of the command executing at the same time.
+     * @param maxQueued     The maximum number of statements of the command waiting.
+     */
+    public void setLimit(String main, int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("Invalid limits for " + main + ": " + maxConcurrent + ", " + maxQueued);
+        }
+        lock.lock();
+        try {
+            limits.put(main, new Limit(maxConcurrent, maxQueued));
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a statement of the main command may execute. Each successful call must be followed by a call to release().
+     *
+     * @param main The main command name.
+     * @throws InterruptedException       If the thread is interrupted while waiting.
+     * @throws RejectedExecutionException If the queue is full and the policy rejects the statement, or it is shed while waiting.
+     */
+    public void acquire(String main) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            State state = states.computeIfAbsent(main, k -> new State());
+            long arrivedAt = System.nanoTime();
+            while (true) {
+                // checked again after waiting for queue space, as a permit may have been freed meanwhile, e.g. if the queue bound is 0
+                if (state.queued == 0 && canRun(main, state)) {
+                    admit(main, state, System.nanoTime() - arrivedAt);
+                    return;
+                }
+                if (!isQueueFull(main, state)) {
+                    break;
+                }
+                switch (policy) {
+                    case REJECT -> {
+                        reject(state);
+                        throw new RejectedExecutionException("Admission queue is full: " + main);
+                    }
+                    case BLOCK -> queueSpace.await();
+                    case SHED_OLDEST -> shedOldest(main, state);
+                }
+            }
+            Waiter waiter = new Waiter(main, lock.newCondition());
+            queue.add(waiter);
+            state.queued++;
+            total.queued++;
+            // statements may have finished while the caller was blocked on a full queue
+            dispatch();
+            try {
+                while (!waiter.admitted && !waiter.shed) {
+                    waiter.signal.await();
+                }
+            } catch (InterruptedException e) {
+                if (waiter.admitted) {
+                    // the permit was granted meanwhile, give it back
+                    release(main);
+                } else if (!waiter.shed) {
+                    dequeue(waiter, state);
+                }
+                throw e;
+            }
+            if (waiter.shed) {
+                throw new RejectedExecutionException("Shed from the admission queue: " + main);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the execution of a statement of the main command and admits the waiting statements that may execute now.
+     *
+     * @param main The main command name.
+     */
+    public void release(String main) {
+        lock.lock();
+        try {
+            State state = states.get(main);
+            if (state == null || state.running == 0) {
+                throw new IllegalStateException("No statement of " + main + " is executing");
+            }
+            state.running--;
+            total.running--;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current state of a main command.
+     *
+     * @param main The main command name.
+     * @return The statistics of the command.
+     */
+    public AdmissionStats getStats(String main) {
+        lock.lock();
+        try {
+            State state = states.get(main);
+            return state == null ? new State().snapshot() : state.snapshot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current state of all main commands together.
+     *
+     * @return The statistics of the controller.
+     */
+    public AdmissionStats getStats() {
+        lock.lock();
+        try {
+            return total.snapshot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of statements waiting.
+     *
+     * @return the queue depth.
+     */
+    public int queueDepth() {
+        lock.lock();
+        try {
+            return total.queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canRun(String main, State state) {
+        Limit limit = limits.get(main);
+        return total.running < maxConcurrent && (limit == null || state.running < limit.maxConcurrent());
+    }
+
+    private boolean isQueueFull(String main, State state) {
+        Limit limit = limits.get(main);
+        return total.queued >= maxQueued || (limit != null && state.queued >= limit.maxQueued());
+    }
+
+    private void admit(String main, State state, long waited) {
+        state.running++;
+        total.running++;
+        for (State s : new State[]{state, total}) {
+            s.admitted++;
+            s.totalWait += waited;
+            s.maxWait = Math.max(s.maxWait, waited);
+        }
+    }
+
+    private void reject(State state) {
+        state.rejected++;
+        total.rejected++;
+    }
+
+    private void dequeue(Waiter waiter, State state) {
+        queue.remove(waiter);
+        state.queued--;
+        total.queued--;
+        queueSpace.signalAll();
+    }
+
+    private void shedOldest(String main, State state) {
+        Limit limit = limits.get(main);
+        // shed from the queue that is full, the command's own queue if it is at its bound
+        boolean ownQueue = limit != null && state.queued >= limit.maxQueued();
+        for (Waiter waiter : new ArrayList<>(queue)) {
+            if (!ownQueue || waiter.main.equals(main)) {
+                State shedState = states.get(waiter.main);
+                dequeue(waiter, shedState);
+                reject(shedState);
+                waiter.shed = true;
+                waiter.signal.signal();
+                return;
+            }
+        }
+        // nothing to shed, e.g. the queue bound is 0
+        reject(state);
+        throw new RejectedExecutionException("Admission queue is full: " + main);
+    }
+
+    private void dispatch() {
+        Iterator<Waiter> iterator = queue.iterator();
+        long now = System.nanoTime();
+        while (iterator.hasNext() && total.running < maxConcurrent) {
+            Waiter waiter = iterator.next();
+            State state = states.get(waiter.main);
+            if (!canRun(waiter.main, state)) {
+                continue;
+            }
+            iterator.remove();
+            state.queued--;
+            total.queued--;
+            admit(waiter.main, state, now - waiter.enqueuedAt);
+            waiter.admitted = true;
+            waiter.signal.signal();
+        }
+        queueSpace.signalAll();
+    }
+}
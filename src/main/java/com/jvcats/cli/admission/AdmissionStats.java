@@ -0,0 +1,25 @@
+package com.jvcats.cli.admission;
+
+import java.time.Duration;
+
+/**
+ * This record is a snapshot of the state of an admission controller, for one main command or for all of them.
+ *
+ * @param running   The number of statements executing.
+ * @param queued    The number of statements waiting to execute.
+ * @param admitted  The number of statements admitted so far.
+ * @param rejected  The number of statements rejected because the queue was full, including the shed ones.
+ * @param totalWait The time the admitted statements waited in total.
+ * @param maxWait   The longest time an admitted statement waited.
+ */
+public record AdmissionStats(int running, int queued, long admitted, long rejected, Duration totalWait, Duration maxWait) {
+
+    /**
+     * Returns the average time an admitted statement waited.
+     *
+     * @return the average wait time.
+     */
+    public Duration averageWait() {
+        return admitted == 0 ? Duration.ZERO : totalWait.dividedBy(admitted);
+    }
+}
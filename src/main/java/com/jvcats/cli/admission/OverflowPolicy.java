@@ -0,0 +1,19 @@
+package com.jvcats.cli.admission;
+
+/**
+ * This enum defines what an admission controller does with a statement that has to wait while the queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * The statement is rejected with a RejectedExecutionException.
+     */
+    REJECT,
+    /**
+     * The caller blocks until there is room in the queue.
+     */
+    BLOCK,
+    /**
+     * The oldest waiting statement of the full queue is rejected with a RejectedExecutionException to make room.
+     */
+    SHED_OLDEST
+}
@@ -0,0 +1,75 @@
+package com.jvcats.cli.annotation;
+
+import com.jvcats.cli.CommandConfig;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation declares a main command on a method, which becomes the task of its main option.
+ * The method must be public, return void and take a List of String as the only parameter.
+ * The values of the command configuration are taken from this annotation, and a registry class registering the command is generated at build time.
+ * The option executor cannot be given in an annotation, so the commands use the default one.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface CliCommand {
+
+    /**
+     * Sets the main command name.
+     *
+     * @return the main command name.
+     */
+    String name();
+
+    /**
+     * Sets the name of the main option, see CommandConfig.mainOptionName().
+     *
+     * @return the name of the main option.
+     */
+    String mainOptionName() default CommandConfig.DEFAULT_OPTION_NAME;
+
+    /**
+     * Sets the running policy, see CommandConfig.runningPolicy().
+     *
+     * @return the running policy.
+     */
+    int runningPolicy() default CommandConfig.INORDER_POLICY;
+
+    /**
+     * Sets whether the options without an explicit priority are registered with priority in descending order, see CommandConfig.registerWithPriority().
+     *
+     * @return whether the options should be registered with priority in descending order automatically.
+     */
+    boolean registerWithPriority() default false;
+
+    /**
+     * Sets whether the options with the same priority should be executed concurrently, see CommandConfig.concurrentOptions().
+     *
+     * @return whether the options with the same priority should be executed concurrently.
+     */
+    boolean concurrentOptions() default false;
+
+    /**
+     * Sets whether the command is idempotent, see CommandConfig.idempotent().
+     *
+     * @return whether the command is idempotent.
+     */
+    boolean idempotent() default false;
+
+    /**
+     * Sets the coalescing window in milliseconds, see CommandConfig.coalescingWindow().
+     *
+     * @return the coalescing window in milliseconds.
+     */
+    long coalescingWindow() default 0;
+
+    /**
+     * Sets the timeout of a statement in milliseconds, see CommandConfig.timeout(). Zero means no timeout.
+     *
+     * @return the timeout of a statement in milliseconds.
+     */
+    long timeout() default 0;
+}
@@ -0,0 +1,47 @@
+package com.jvcats.cli.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation declares an option of a main command on a method, which becomes the task of the option.
+ * The method must be public, return void and take a List of String as the only parameter.
+ * The main command must be declared with CliCommand in the same compilation.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface CliOption {
+
+    int AUTO_PRIORITY = Integer.MIN_VALUE;
+
+    /**
+     * Sets the main command name.
+     *
+     * @return the main command name.
+     */
+    String command();
+
+    /**
+     * Sets the option names, all of them share the same task and priority.
+     *
+     * @return the option names.
+     */
+    String[] names();
+
+    /**
+     * Sets the running priority of the option.
+     * The default value means the priority is taken from the running policy in the order of declaration, like registering the option with CommandParser.
+     *
+     * @return the running priority.
+     */
+    int priority() default AUTO_PRIORITY;
+
+    /**
+     * Sets the names of the options to wait for, see CommandParser.addOptionDependencies().
+     *
+     * @return the names of the options to wait for.
+     */
+    String[] dependsOn() default {};
+}
@@ -0,0 +1,385 @@
+package com.jvcats.cli.annotation;
+
+import com.jvcats.cli.CommandConfig;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * This processor generates a registry class from the methods annotated with CliCommand and CliOption.
+ * The registry implements CommandProvider and fills the main commands and options of a parser directly, without reflection at runtime.
+ * The name of the registry is set with the option -Acli.registry=com.example.MyRegistry,
+ * and defaults to GeneratedCommandRegistry in the package of the first annotated class.
+ * The registry is added to META-INF/services/com.jvcats.cli.CommandProvider, so loadProviders() of a parser finds it.
+ * <p>
+ * The options are checked like registering them with a parser: an option name must be unique within its main command,
+ * and a dependency must be an option of the same main command with the same or a higher priority, without cycles.
+ */
+@SupportedAnnotationTypes({"com.jvcats.cli.annotation.CliCommand", "com.jvcats.cli.annotation.CliOption"})
+@SupportedOptions(CommandRegistryProcessor.REGISTRY_OPTION)
+public class CommandRegistryProcessor extends AbstractProcessor {
+    static final String REGISTRY_OPTION = "cli.registry";
+    private static final String DEFAULT_REGISTRY_NAME = "GeneratedCommandRegistry";
+    private static final String SERVICE_FILE = "META-INF/services/com.jvcats.cli.CommandProvider";
+    private boolean generated;
+
+    private record CommandDef(ExecutableElement method, CliCommand annotation, List<OptionDef> options) {
+    }
+
+    private record OptionDef(ExecutableElement method, CliOption annotation) {
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (generated || annotations.isEmpty()) {
+            return false;
+        }
+        // keep the order of declaration, as it decides the automatic priorities
+        Set<TypeElement> classes = new LinkedHashSet<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(CliCommand.class)) {
+            classes.add((TypeElement) element.getEnclosingElement());
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(CliOption.class)) {
+            classes.add((TypeElement) element.getEnclosingElement());
+        }
+        if (classes.isEmpty()) {
+            return false;
+        }
+        Map<String, CommandDef> commands = new LinkedHashMap<>();
+        List<OptionDef> options = new ArrayList<>();
+        for (TypeElement type : classes) {
+            for (Element element : type.getEnclosedElements()) {
+                CliCommand command = element.getAnnotation(CliCommand.class);
+                CliOption option = element.getAnnotation(CliOption.class);
+                if ((command == null && option == null) || !checkMethod(element)) {
+                    continue;
+                }
+                if (command != null) {
+                    if (command.coalescingWindow() < 0 || command.timeout() < 0) {
+                        error(element, "Negative coalescing window or timeout of main command: " + command.name());
+                        continue;
+                    }
+                    if (commands.containsKey(command.name())) {
+                        error(element, "Duplicate main command: " + command.name());
+                        continue;
+                    }
+                    commands.put(command.name(), new CommandDef((ExecutableElement) element, command, new ArrayList<>()));
+                }
+                if (option != null) {
+                    options.add(new OptionDef((ExecutableElement) element, option));
+                }
+            }
+        }
+        for (OptionDef option : options) {
+            CommandDef command = commands.get(option.annotation().command());
+            if (command == null) {
+                error(option.method(), "Undefined main command: " + option.annotation().command());
+            } else if (option.annotation().names().length == 0) {
+                error(option.method(), "No option name for main command: " + option.annotation().command());
+            } else {
+                command.options().add(option);
+            }
+        }
+        for (CommandDef command : commands.values()) {
+            checkOptions(command);
+        }
+        String registry = processingEnv.getOptions().get(REGISTRY_OPTION);
+        if (registry == null) {
+            PackageElement pkg = processingEnv.getElementUtils().getPackageOf(classes.iterator().next());
+            registry = pkg.isUnnamed() ? DEFAULT_REGISTRY_NAME : pkg.getQualifiedName() + "." + DEFAULT_REGISTRY_NAME;
+        }
+        write(registry, classes, commands.values());
+        writeService(registry, classes);
+        generated = true;
+        return true;
+    }
+
+    private boolean checkMethod(Element element) {
+        if (!(element instanceof ExecutableElement method) || element.getKind() != ElementKind.METHOD) {
+            error(element, "Only methods can declare commands and options");
+            return false;
+        }
+        TypeElement type = (TypeElement) method.getEnclosingElement();
+        if (!method.getModifiers().contains(Modifier.PUBLIC) || !type.getModifiers().contains(Modifier.PUBLIC)) {
+            error(method, "The method and its class must be public");
+            return false;
+        }
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL && !type.getModifiers().contains(Modifier.STATIC)) {
+            error(method, "The class of the method must be a top level or static nested class");
+            return false;
+        }
+        TypeMirror argsType = processingEnv.getTypeUtils().getDeclaredType(
+                processingEnv.getElementUtils().getTypeElement(List.class.getCanonicalName()),
+                processingEnv.getElementUtils().getTypeElement(String.class.getCanonicalName()).asType());
+        if (method.getReturnType().getKind() != TypeKind.VOID || method.getParameters().size() != 1
+                || !processingEnv.getTypeUtils().isSameType(method.getParameters().getFirst().asType(), argsType)) {
+            error(method, "The method must return void and take a List<String> as the only parameter");
+            return false;
+        }
+        if (!method.getModifiers().contains(Modifier.STATIC) && !hasPublicNoArgConstructor(type)) {
+            error(method, "The class of an instance method must have a public constructor without parameters");
+            return false;
+        }
+        return true;
+    }
+
+    private void checkOptions(CommandDef command) {
+        CliCommand annotation = command.annotation();
+        String mainOption = annotation.mainOptionName();
+        Map<String, OptionDef> byName = new HashMap<>();
+        Map<OptionDef, Integer> priorities = new HashMap<>();
+        // the priorities are assigned in the same order as by the generated code
+        int priorityIndex = annotation.registerWithPriority() ? annotation.runningPolicy() : 0;
+        for (OptionDef option : command.options()) {
+            int priority = option.annotation().priority();
+            if (priority == CliOption.AUTO_PRIORITY) {
+                if (annotation.registerWithPriority()) {
+                    priorityIndex--;
+                }
+                priority = priorityIndex;
+            }
+            priorities.put(option, priority);
+            for (String name : option.annotation().names()) {
+                if (name.isBlank() || name.equals(mainOption)) {
+                    error(option.method(), "Invalid option name: " + name);
+                } else if (byName.putIfAbsent(name, option) != null) {
+                    error(option.method(), "Duplicate option of main command " + annotation.name() + ": " + name);
+                }
+            }
+        }
+        Map<OptionDef, List<OptionDef>> graph = new LinkedHashMap<>();
+        for (OptionDef option : command.options()) {
+            String name = option.annotation().names()[0];
+            List<OptionDef> edges = new ArrayList<>();
+            for (String dependency : option.annotation().dependsOn()) {
+                if (dependency.isBlank() || dependency.equals(mainOption)) {
+                    // the main option has no dependencies, so it cannot be part of a cycle
+                    if (CommandConfig.MAIN_OPTION_PRIORITY < priorities.get(option)) {
+                        error(option.method(), "Option " + name + " cannot wait for option with lower priority: " + mainOption);
+                    }
+                    continue;
+                }
+                OptionDef target = byName.get(dependency);
+                if (target == null) {
+                    error(option.method(), "Undefined dependency of option " + name + ": " + dependency);
+                } else if (priorities.get(target) < priorities.get(option)) {
+                    error(option.method(), "Option " + name + " cannot wait for option with lower priority: " + dependency);
+                } else {
+                    edges.add(target);
+                }
+            }
+            graph.put(option, edges);
+        }
+        Set<OptionDef> visited = new HashSet<>();
+        for (OptionDef option : graph.keySet()) {
+            Set<OptionDef> visiting = new HashSet<>();
+            OptionDef cycle = findCycle(option, graph, visited, visiting);
+            if (cycle != null) {
+                error(cycle.method(), "Circular option dependency: " + cycle.annotation().names()[0]);
+                // the options on the cycle are reported once
+                visited.addAll(visiting);
+            }
+        }
+    }
+
+    private OptionDef findCycle(OptionDef option, Map<OptionDef, List<OptionDef>> graph, Set<OptionDef> visited, Set<OptionDef> visiting) {
+        if (visited.contains(option)) {
+            return null;
+        }
+        if (!visiting.add(option)) {
+            return option;
+        }
+        for (OptionDef dependency : graph.get(option)) {
+            OptionDef cycle = findCycle(dependency, graph, visited, visiting);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        visiting.remove(option);
+        visited.add(option);
+        return null;
+    }
+
+    private boolean hasPublicNoArgConstructor(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+        for (Element element : type.getEnclosedElements()) {
+            if (element.getKind() == ElementKind.CONSTRUCTOR && ((ExecutableElement) element).getParameters().isEmpty()) {
+                return element.getModifiers().contains(Modifier.PUBLIC);
+            }
+        }
+        return false;
+    }
+
+    private void write(String registry, Set<TypeElement> classes, Collection<CommandDef> commands) {
+        int dot = registry.lastIndexOf('.');
+        String pkg = dot < 0 ? null : registry.substring(0, dot);
+        String simpleName = registry.substring(dot + 1);
+        Map<TypeElement, String> instances = new HashMap<>();
+        StringBuilder code = new StringBuilder();
+        if (pkg != null) {
+            code.append("package ").append(pkg).append(";\n\n");
+        }
+        code.append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n");
+        code.append("@com.jvcats.cli.CommandGroup(commands = {");
+        StringJoiner names = new StringJoiner(", ");
+        for (CommandDef command : commands) {
+            names.add(literal(command.annotation().name()));
+        }
+        code.append(names).append("})\n");
+        code.append("public final class ").append(simpleName).append(" implements com.jvcats.cli.CommandProvider {\n\n");
+        code.append("    @Override\n");
+        code.append("    public void register(com.jvcats.cli.CommandParser parser) {\n");
+        for (TypeElement type : classes) {
+            if (needsInstance(type, commands)) {
+                String instance = "instance" + instances.size();
+                instances.put(type, instance);
+                code.append("        ").append(type.getQualifiedName()).append(' ').append(instance)
+                        .append(" = new ").append(type.getQualifiedName()).append("();\n");
+            }
+        }
+        for (CommandDef command : commands) {
+            CliCommand annotation = command.annotation();
+            code.append("        {\n");
+            code.append("            com.jvcats.cli.CommandConfig config = new com.jvcats.cli.CommandConfig() {\n");
+            appendOverride(code, "String", "mainOptionName", literal(annotation.mainOptionName()));
+            appendOverride(code, "int", "runningPolicy", String.valueOf(annotation.runningPolicy()));
+            appendOverride(code, "boolean", "registerWithPriority", String.valueOf(annotation.registerWithPriority()));
+            appendOverride(code, "boolean", "concurrentOptions", String.valueOf(annotation.concurrentOptions()));
+            appendOverride(code, "boolean", "idempotent", String.valueOf(annotation.idempotent()));
+            appendOverride(code, "java.time.Duration", "coalescingWindow", "java.time.Duration.ofMillis(" + annotation.coalescingWindow() + "L)");
+            appendOverride(code, "java.time.Duration", "timeout", "java.time.Duration.ofMillis(" + annotation.timeout() + "L)");
+            code.append("            };\n");
+            code.append("            com.jvcats.cli.cmd.MainCommand main = new com.jvcats.cli.cmd.MainCommand(config);\n");
+            code.append("            main.getOptions().put(config.mainOptionName(), new com.jvcats.cli.cmd.Option(")
+                    .append("com.jvcats.cli.CommandConfig.MAIN_OPTION_PRIORITY, ").append(task(command.method(), instances)).append("));\n");
+            for (OptionDef option : command.options()) {
+                int priority = option.annotation().priority();
+                code.append("            {\n");
+                code.append("                com.jvcats.cli.cmd.Option option = new com.jvcats.cli.cmd.Option(")
+                        .append(priority == CliOption.AUTO_PRIORITY ? "main.decrementPriorityIndex()" : String.valueOf(priority))
+                        .append(", ").append(task(option.method(), instances)).append(");\n");
+                for (String name : option.annotation().names()) {
+                    code.append("                main.getOptions().put(").append(literal(name)).append(", option);\n");
+                }
+                code.append("            }\n");
+            }
+            code.append("            parser.register(").append(literal(annotation.name())).append(", main);\n");
+            for (OptionDef option : command.options()) {
+                if (option.annotation().dependsOn().length > 0) {
+                    StringJoiner dependencies = new StringJoiner(", ");
+                    for (String dependency : option.annotation().dependsOn()) {
+                        dependencies.add(literal(dependency));
+                    }
+                    code.append("            parser.addOptionDependencies(").append(literal(annotation.name())).append(", ")
+                            .append(literal(option.annotation().names()[0])).append(", ").append(dependencies).append(");\n");
+                }
+            }
+            code.append("        }\n");
+        }
+        code.append("    }\n");
+        code.append("}\n");
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(registry, classes.toArray(new Element[0]));
+            try (Writer writer = file.openWriter()) {
+                writer.write(code.toString());
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + registry + ": " + e.getMessage());
+        }
+    }
+
+    private void writeService(String registry, Set<TypeElement> classes) {
+        // the providers listed in a service file of the sources are kept
+        Set<String> providers = new LinkedHashSet<>();
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            for (String line : existing.getCharContent(true).toString().split("\\R")) {
+                String provider = line.strip();
+                if (!provider.isEmpty() && !provider.startsWith("#")) {
+                    providers.add(provider);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // there is no service file yet
+        }
+        providers.add(registry);
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE, classes.toArray(new Element[0]));
+            try (Writer writer = file.openWriter()) {
+                for (String provider : providers) {
+                    writer.write(provider);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + SERVICE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private boolean needsInstance(TypeElement type, Collection<CommandDef> commands) {
+        for (CommandDef command : commands) {
+            if (isInstanceMethodOf(command.method(), type)) {
+                return true;
+            }
+            for (OptionDef option : command.options()) {
+                if (isInstanceMethodOf(option.method(), type)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isInstanceMethodOf(ExecutableElement method, TypeElement type) {
+        return method.getEnclosingElement().equals(type) && !method.getModifiers().contains(Modifier.STATIC);
+    }
+
+    private String task(ExecutableElement method, Map<TypeElement, String> instances) {
+        TypeElement type = (TypeElement) method.getEnclosingElement();
+        String target = method.getModifiers().contains(Modifier.STATIC) ? type.getQualifiedName().toString() : instances.get(type);
+        return target + "::" + method.getSimpleName();
+    }
+
+    private void appendOverride(StringBuilder code, String type, String name, String value) {
+        code.append("                @Override\n");
+        code.append("                public ").append(type).append(' ').append(name).append("() {\n");
+        code.append("                    return ").append(value).append(";\n");
+        code.append("                }\n");
+    }
+
+    private String literal(String value) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> result.append("\\\"");
+                case '\\' -> result.append("\\\\");
+                case '\n' -> result.append("\\n");
+                case '\r' -> result.append("\\r");
+                case '\t' -> result.append("\\t");
+                default -> result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -1,8 +1,19 @@
 package com.jvcats.cli.cmd;
 
+import com.jvcats.cli.CommandConfig;
+import com.jvcats.cli.CommandTask;
+import com.jvcats.cli.admission.AdmissionController;
+import com.jvcats.cli.exec.CancellationScope;
+import com.jvcats.cli.jfr.ExecuteEvent;
+import com.jvcats.cli.journal.CommandJournal;
 import com.jvcats.cli.tree.Node;
+import com.jvcats.cli.var.VariableScope;
+import com.jvcats.cli.var.Variables;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * Base class for running commands.
@@ -14,6 +25,7 @@ public class BaseCommand implements Command {
     private final MainCommandAdapter mainCommandAdapter;
     private List<Node> children = new ArrayList<>();
     private Node parent;
+    private RunCondition condition = RunCondition.ALWAYS;
 
     /**
      * Using this constructor is discouraged, one should call createCommand() from CommandParser instead
@@ -121,8 +133,81 @@ public class BaseCommand implements Command {
 
     @Override
     public void execute() throws Exception {
+        Variables variables = mainCommandAdapter.getVariables();
+        if (variables == null) {
+            executeStatement();
+            return;
+        }
+        // the variables set by the tasks of this command are visible to its block until it ends
+        VariableScope scope = variables.openScope();
+        try {
+            executeStatement();
+        } finally {
+            scope.close();
+        }
+    }
+
+    private void executeStatement() throws Exception {
+        MainCommand mainCommand = mainCommandAdapter.get(name);
+        OptionAdapter optionAdapter = mainCommand.getOptions();
+        List<List<RunningOption>> groups = executionGroups(optionAdapter);
+        CommandConfig config = mainCommand.getConfig();
+        CancellationScope scope = CancellationScope.current();
+        if (scope != null) {
+            // executed by executeAsync(), the scope runs the block so that it can be cancelled as a whole
+            scope.execute(this, config.timeout(), () -> {
+                admitOptions(groups, optionAdapter, config);
+                return null;
+            }, children);
+            return;
+        }
+        Exception failure = null;
+        try {
+            admitOptions(groups, optionAdapter, config);
+        } catch (Exception e) {
+            failure = e;
+        }
+
+        for (Node node : children) {
+            Command child = (Command) node;
+            if (!child.getCondition().holdsAfter(failure)) {
+                if (child.getCondition() == RunCondition.ALWAYS) {
+                    throw failure;
+                }
+                // the child is skipped with its block
+                continue;
+            }
+            failure = null;
+            try {
+                child.execute();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public RunCondition getCondition() {
+        return condition;
+    }
+
+    @Override
+    public void setCondition(RunCondition condition) {
+        this.condition = condition;
+    }
+
+    /**
+     * Returns the options in the order they run, as groups of options with the same priority.
+     * The groups are in descending order of priority, and the options of a group are in dependency order.
+     *
+     * @param optionAdapter The options of the main command.
+     * @return The groups of options.
+     */
+    List<List<RunningOption>> executionGroups(OptionAdapter optionAdapter) {
         List<RunningOption> temp = new ArrayList<>(options);
-        OptionAdapter optionAdapter = mainCommandAdapter.get(name).getOptions();
         temp.sort((o1, o2) -> {
             Option option = optionAdapter.get(o1.getName());
             Option option2 = optionAdapter.get(o2.getName());
@@ -131,12 +216,175 @@ public class BaseCommand implements Command {
             }
             return option2.priority() - option.priority();
         });
-        for (RunningOption option : temp) {
-            optionAdapter.get(option.getName()).task().run(option.getArgs());
+        List<List<RunningOption>> groups = new ArrayList<>();
+        int start = 0;
+        while (start < temp.size()) {
+            // options with the same priority are adjacent after sorting
+            int priority = optionAdapter.get(temp.get(start).getName()).priority();
+            int end = start + 1;
+            while (end < temp.size() && optionAdapter.get(temp.get(end).getName()).priority() == priority) {
+                end++;
+            }
+            groups.add(orderByDependencies(temp.subList(start, end), optionAdapter));
+            start = end;
         }
+        return groups;
+    }
 
-        for (Node child : children) {
-            ((Command) child).execute();
+    private void admitOptions(List<List<RunningOption>> groups, OptionAdapter optionAdapter, CommandConfig config) throws Exception {
+        AdmissionController admissionController = mainCommandAdapter.getAdmissionController();
+        if (admissionController == null) {
+            runOptions(groups, optionAdapter, config);
+            return;
+        }
+        // the children are not executed under the permit, so they cannot wait for their parent's command
+        admissionController.acquire(name);
+        try {
+            runOptions(groups, optionAdapter, config);
+        } finally {
+            admissionController.release(name);
+        }
+    }
+
+    private void runOptions(List<List<RunningOption>> groups, OptionAdapter optionAdapter, CommandConfig config) throws Exception {
+        journal();
+        for (List<RunningOption> group : groups) {
+            if (config.concurrentOptions() && group.size() > 1) {
+                runConcurrently(group, optionAdapter, config.optionExecutor());
+            } else {
+                for (RunningOption option : group) {
+                    CancellationScope.checkpoint();
+                    runTask(option, optionAdapter.get(option.getName()).task(), VariableScope.current());
+                }
+            }
+        }
+    }
+
+    // the statement is journaled once it was admitted and not cancelled, before any of its tasks runs
+    private void journal() throws Exception {
+        CommandJournal journal = mainCommandAdapter.getJournal();
+        if (journal == null || NOP_COMMAND.equals(name)) {
+            return;
+        }
+        CancellationScope.checkpoint();
+        List<String> names = new ArrayList<>(options.size());
+        List<List<String>> arguments = new ArrayList<>(options.size());
+        for (RunningOption option : options) {
+            names.add(option.getName());
+            arguments.add(option.getArgs());
+        }
+        journal.appendStatement(name, names, arguments, mainCommandAdapter.getVariables() == null ? null : VariableScope.current());
+    }
+
+    private List<RunningOption> orderByDependencies(List<RunningOption> group, OptionAdapter optionAdapter) {
+        boolean hasDependencies = false;
+        for (RunningOption option : group) {
+            if (!optionAdapter.get(option.getName()).dependencies().isEmpty()) {
+                hasDependencies = true;
+                break;
+            }
+        }
+        if (!hasDependencies) {
+            return group;
+        }
+        List<RunningOption> ordered = new ArrayList<>(group.size());
+        Set<RunningOption> visited = new HashSet<>();
+        Set<RunningOption> visiting = new HashSet<>();
+        for (RunningOption option : group) {
+            visit(option, group, optionAdapter, visited, visiting, ordered);
+        }
+        return ordered;
+    }
+
+    private void visit(RunningOption option, List<RunningOption> group, OptionAdapter optionAdapter,
+                       Set<RunningOption> visited, Set<RunningOption> visiting, List<RunningOption> ordered) {
+        if (visited.contains(option)) {
+            return;
+        }
+        if (!visiting.add(option)) {
+            throw new IllegalStateException("Circular option dependency: " + option.getName());
+        }
+        for (RunningOption dependency : dependenciesOf(option, group, optionAdapter)) {
+            visit(dependency, group, optionAdapter, visited, visiting, ordered);
+        }
+        visiting.remove(option);
+        visited.add(option);
+        ordered.add(option);
+    }
+
+    static List<RunningOption> dependenciesOf(RunningOption option, List<RunningOption> group, OptionAdapter optionAdapter) {
+        List<RunningOption> result = new ArrayList<>();
+        for (String dependency : optionAdapter.get(option.getName()).dependencies()) {
+            if (!optionAdapter.containsKey(dependency)) {
+                continue;
+            }
+            // compare the registered options so that any name of a dependency matches
+            Option target = optionAdapter.get(dependency);
+            for (RunningOption candidate : group) {
+                if (candidate != option && optionAdapter.get(candidate.getName()) == target) {
+                    result.add(candidate);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void runConcurrently(List<RunningOption> group, OptionAdapter optionAdapter, Executor executor) throws Exception {
+        // the group is in dependency order, so the futures of the dependencies always exist
+        Map<RunningOption, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        // the tasks run on other threads, so the scope of the command is passed to them
+        VariableScope variables = VariableScope.current();
+        for (RunningOption option : group) {
+            List<RunningOption> dependencies = dependenciesOf(option, group, optionAdapter);
+            CompletableFuture<?>[] waitFor = new CompletableFuture<?>[dependencies.size()];
+            for (int i = 0; i < waitFor.length; i++) {
+                waitFor[i] = futures.get(dependencies.get(i));
+            }
+            CommandTask task = optionAdapter.get(option.getName()).task();
+            CancellationScope scope = CancellationScope.current();
+            futures.put(option, CompletableFuture.allOf(waitFor).thenRunAsync(() -> {
+                try {
+                    if (scope == null) {
+                        runTask(option, task, variables);
+                    } else {
+                        // the option thread is interrupted with the statement when it is cancelled
+                        scope.call(() -> {
+                            runTask(option, task, variables);
+                            return null;
+                        });
+                    }
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void runTask(RunningOption option, CommandTask task, VariableScope variables) throws Exception {
+        ExecuteEvent event = new ExecuteEvent();
+        event.begin();
+        boolean failed = true;
+        try {
+            if (variables == null) {
+                task.run(option.getArgs());
+            } else {
+                variables.run(task, option.getArgs());
+            }
+            failed = false;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.set(name, option.getName(), option.getArgs().size(), failed);
+                event.commit();
+            }
         }
     }
 
@@ -151,6 +399,12 @@ public class BaseCommand implements Command {
         children.add(node);
     }
 
+    @Override
+    public void addChild(int index, Node node) {
+        node.setParent(this);
+        children.add(index, node);
+    }
+
     @Override
     public List<Node> removeAllChildren() {
         List<Node> children = this.children;
@@ -167,6 +421,24 @@ public class BaseCommand implements Command {
         node.setParent(null);
     }
 
+    @Override
+    public void removeChildren(Collection<? extends Node> nodes) {
+        Set<Node> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(nodes);
+        children.removeIf(child -> {
+            if (removed.contains(child)) {
+                child.setParent(null);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void sortChildren(Comparator<? super Node> comparator) {
+        children.sort(comparator);
+    }
+
     @Override
     public List<Node> getChildren() {
         return children;
@@ -32,4 +32,25 @@ public interface Command extends Node {
     void clearArguments(String option);
 
     void execute() throws Exception;
+
+    /**
+     * Returns when this command is executed depending on the outcome of the previous command in its block.
+     *
+     * @return The run condition.
+     */
+    default RunCondition getCondition() {
+        return RunCondition.ALWAYS;
+    }
+
+    /**
+     * Sets when this command is executed depending on the outcome of the previous command in its block.
+     * The default implementation only accepts ALWAYS, for commands that do not store a condition.
+     *
+     * @param condition The run condition.
+     */
+    default void setCondition(RunCondition condition) {
+        if (condition != RunCondition.ALWAYS) {
+            throw new UnsupportedOperationException("Conditions are not supported by " + getClass().getName());
+        }
+    }
 }
@@ -0,0 +1,398 @@
+package com.jvcats.cli.cmd;
+
+import com.jvcats.cli.CommandConfig;
+import com.jvcats.cli.CommandTask;
+import com.jvcats.cli.admission.AdmissionController;
+import com.jvcats.cli.exec.CancellationScope;
+import com.jvcats.cli.jfr.ExecuteEvent;
+import com.jvcats.cli.journal.CommandJournal;
+import com.jvcats.cli.tree.BaseCommandFactory;
+import com.jvcats.cli.tree.CommandFactory;
+import com.jvcats.cli.tree.Node;
+import com.jvcats.cli.var.VariableScope;
+import com.jvcats.cli.var.Variables;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * This class is a command tree compiled into a flat program. The statements are stored in the order they are executed, each with the range
+ * of its steps, the end of its block and its run condition, and each step is the resolved task of an option with its arguments, in the order the options run.
+ * A program is immutable, so it can be executed any number of times and concurrently without sorting the options or looking up the tasks again.
+ * The arguments are passed to the tasks as unmodifiable lists.
+ * <p>
+ * A program becomes invalid when a main command is registered or removed, or an option of a compiled command is registered, replaced or removed,
+ * and executing it then throws an IllegalStateException. Commands of other classes than BaseCommand are kept as they are and executed with their blocks,
+ * unless they are the views of a tree that executes them as commands of a BaseCommandFactory, which are compiled through their options and arguments.
+ */
+public final class CommandProgram {
+    private final MainCommandAdapter mainCommandAdapter;
+    private final int registryVersion;
+    private final OptionAdapter[] optionAdapters;
+    private final int[] optionVersions;
+    // the statements in the order they are executed, the steps of statement i are firstSteps[i] to firstSteps[i + 1]
+    private final String[] commands;
+    private final int[] firstSteps;
+    private final int[] blockEnds;
+    private final Command[] commandsAsIs;
+    private final Executor[] executors;
+    private final RunCondition[] conditions;
+    // the steps, a group of options with the same priority ends at groupEnds[step]
+    private final CommandTask[] tasks;
+    private final String[] options;
+    private final List<List<String>> arguments;
+    private final int[] groupEnds;
+    private final int[][] dependencies;
+
+    private CommandProgram(Compiler compiler) {
+        this.mainCommandAdapter = compiler.mainCommandAdapter;
+        this.registryVersion = compiler.registryVersion;
+        this.optionAdapters = compiler.optionVersions.keySet().toArray(new OptionAdapter[0]);
+        this.optionVersions = new int[optionAdapters.length];
+        for (int i = 0; i < optionAdapters.length; i++) {
+            optionVersions[i] = compiler.optionVersions.get(optionAdapters[i]);
+        }
+        this.commands = compiler.commands.toArray(new String[0]);
+        this.firstSteps = toArray(compiler.firstSteps);
+        this.blockEnds = toArray(compiler.blockEnds);
+        this.commandsAsIs = compiler.commandsAsIs.toArray(new Command[0]);
+        this.executors = compiler.executors.toArray(new Executor[0]);
+        this.conditions = compiler.conditions.toArray(new RunCondition[0]);
+        this.tasks = compiler.tasks.toArray(new CommandTask[0]);
+        this.options = compiler.options.toArray(new String[0]);
+        this.arguments = List.copyOf(compiler.arguments);
+        this.groupEnds = toArray(compiler.groupEnds);
+        this.dependencies = compiler.dependencies.toArray(new int[0][]);
+    }
+
+    /**
+     * Compiles the command tree with the given head. The tree is not changed, but it should not be changed afterward
+     * if it contains commands of other classes than BaseCommand, as they are executed as they are.
+     *
+     * @param head               The head of the command tree.
+     * @param mainCommandAdapter The main commands the tree was built with.
+     * @return The program.
+     */
+    public static CommandProgram compile(Command head, MainCommandAdapter mainCommandAdapter) {
+        return compile(head, mainCommandAdapter, null);
+    }
+
+    /**
+     * Compiles a command tree whose commands are views that are executed as the commands the given factory creates from their name,
+     * options and arguments, like the commands of a CompactCommandTree or a PersistentCommandTree. If the factory is a BaseCommandFactory,
+     * the views are compiled through getOptions() and getArguments() like a BaseCommand, otherwise they are kept as they are.
+     *
+     * @param head               The head of the command tree.
+     * @param mainCommandAdapter The main commands the tree was built with.
+     * @param commandFactory     The factory executing the views, or null if the commands are not views.
+     * @return The program.
+     */
+    public static CommandProgram compile(Command head, MainCommandAdapter mainCommandAdapter, CommandFactory commandFactory) {
+        Compiler compiler = new Compiler(mainCommandAdapter, commandFactory != null && commandFactory.getClass() == BaseCommandFactory.class);
+        if (head != null) {
+            compiler.add(head);
+        }
+        compiler.firstSteps.add(compiler.tasks.size());
+        return new CommandProgram(compiler);
+    }
+
+    /**
+     * Checks if the commands and options used by the program are still registered as they were when it was compiled.
+     *
+     * @return True if the program can be executed, false otherwise.
+     */
+    public boolean isValid() {
+        if (mainCommandAdapter.version() != registryVersion) {
+            return false;
+        }
+        for (int i = 0; i < optionAdapters.length; i++) {
+            if (optionAdapters[i].version() != optionVersions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of statements.
+     *
+     * @return The number of statements.
+     */
+    public int statementCount() {
+        return commands.length;
+    }
+
+    /**
+     * Returns the number of option tasks.
+     *
+     * @return The number of steps.
+     */
+    public int stepCount() {
+        return tasks.length;
+    }
+
+    /**
+     * Returns the index of the statement after the block of the given statement. The statements of its block are the ones in between.
+     *
+     * @param statement The index of the statement in execution order.
+     * @return The end of the block, exclusive.
+     */
+    public int blockEnd(int statement) {
+        return blockEnds[statement];
+    }
+
+    /**
+     * Executes the program in the same order as the command tree it was compiled from.
+     *
+     * @throws Exception If an error occurs while executing the program.
+     */
+    public void execute() throws Exception {
+        if (!isValid()) {
+            throw new IllegalStateException("The program is invalid, the registered commands have changed since it was compiled");
+        }
+        if (commands.length > 0) {
+            execute(0, mainCommandAdapter.getAdmissionController());
+        }
+    }
+
+    private void execute(int statement, AdmissionController admissionController) throws Exception {
+        if (commandsAsIs[statement] != null) {
+            commandsAsIs[statement].execute();
+            return;
+        }
+        Variables variables = mainCommandAdapter.getVariables();
+        if (variables == null) {
+            executeStatement(statement, admissionController);
+            return;
+        }
+        VariableScope scope = variables.openScope();
+        try {
+            executeStatement(statement, admissionController);
+        } finally {
+            scope.close();
+        }
+    }
+
+    private void executeStatement(int statement, AdmissionController admissionController) throws Exception {
+        Exception failure = null;
+        try {
+            if (admissionController == null) {
+                runSteps(statement);
+            } else {
+                admissionController.acquire(commands[statement]);
+                try {
+                    runSteps(statement);
+                } finally {
+                    admissionController.release(commands[statement]);
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+        }
+        // the statements of the block follow the statement, each one followed by its own block
+        for (int child = statement + 1; child < blockEnds[statement]; child = blockEnds[child]) {
+            if (!conditions[child].holdsAfter(failure)) {
+                if (conditions[child] == RunCondition.ALWAYS) {
+                    throw failure;
+                }
+                continue;
+            }
+            failure = null;
+            try {
+                execute(child, admissionController);
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void runSteps(int statement) throws Exception {
+        int step = firstSteps[statement];
+        int end = firstSteps[statement + 1];
+        journal(statement, step, end);
+        while (step < end) {
+            int groupEnd = groupEnds[step];
+            if (executors[statement] != null && groupEnd - step > 1) {
+                runConcurrently(statement, step, groupEnd);
+            } else {
+                for (int i = step; i < groupEnd; i++) {
+                    CancellationScope.checkpoint();
+                    runTask(statement, i, VariableScope.current());
+                }
+            }
+            step = groupEnd;
+        }
+    }
+
+    // the statement is journaled once it was admitted and not cancelled, before any of its tasks runs
+    private void journal(int statement, int from, int to) throws Exception {
+        CommandJournal journal = mainCommandAdapter.getJournal();
+        if (journal == null || Command.NOP_COMMAND.equals(commands[statement])) {
+            return;
+        }
+        CancellationScope.checkpoint();
+        journal.appendStatement(commands[statement], Arrays.asList(options).subList(from, to), arguments.subList(from, to),
+                mainCommandAdapter.getVariables() == null ? null : VariableScope.current());
+    }
+
+    private void runConcurrently(int statement, int from, int to) throws Exception {
+        // the steps of a group are in dependency order, so the futures of the dependencies always exist
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[to - from];
+        CancellationScope scope = CancellationScope.current();
+        VariableScope variables = VariableScope.current();
+        for (int i = from; i < to; i++) {
+            int step = i;
+            CompletableFuture<?>[] waitFor = new CompletableFuture<?>[dependencies[step] == null ? 0 : dependencies[step].length];
+            for (int j = 0; j < waitFor.length; j++) {
+                waitFor[j] = futures[dependencies[step][j] - from];
+            }
+            futures[step - from] = CompletableFuture.allOf(waitFor).thenRunAsync(() -> {
+                try {
+                    if (scope == null) {
+                        runTask(statement, step, variables);
+                    } else {
+                        // the option thread is interrupted with the statement when it is cancelled
+                        scope.call(() -> {
+                            runTask(statement, step, variables);
+                            return null;
+                        });
+                    }
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executors[statement]);
+        }
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void runTask(int statement, int step, VariableScope variables) throws Exception {
+        ExecuteEvent event = new ExecuteEvent();
+        event.begin();
+        boolean failed = true;
+        try {
+            if (variables == null) {
+                tasks[step].run(arguments.get(step));
+            } else {
+                variables.run(tasks[step], arguments.get(step));
+            }
+            failed = false;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.set(commands[statement], options[step], arguments.get(step).size(), failed);
+                event.commit();
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static final class Compiler {
+        final MainCommandAdapter mainCommandAdapter;
+        final int registryVersion;
+        final Map<OptionAdapter, Integer> optionVersions = new IdentityHashMap<>();
+        final List<String> commands = new ArrayList<>();
+        final List<Integer> firstSteps = new ArrayList<>();
+        final List<Integer> blockEnds = new ArrayList<>();
+        final List<Command> commandsAsIs = new ArrayList<>();
+        final List<Executor> executors = new ArrayList<>();
+        final List<RunCondition> conditions = new ArrayList<>();
+        final List<CommandTask> tasks = new ArrayList<>();
+        final List<String> options = new ArrayList<>();
+        final List<List<String>> arguments = new ArrayList<>();
+        final List<Integer> groupEnds = new ArrayList<>();
+        final List<int[]> dependencies = new ArrayList<>();
+        // whether the commands of other classes are views executed as a BaseCommand with their options
+        final boolean baseCommandViews;
+
+        Compiler(MainCommandAdapter mainCommandAdapter, boolean baseCommandViews) {
+            this.mainCommandAdapter = mainCommandAdapter;
+            this.baseCommandViews = baseCommandViews;
+            // the versions are taken before anything is looked up, so a concurrent change always invalidates the program
+            this.registryVersion = mainCommandAdapter.version();
+        }
+
+        void add(Command command) {
+            int index = commands.size();
+            commands.add(command.getName());
+            firstSteps.add(tasks.size());
+            blockEnds.add(index + 1);
+            conditions.add(command.getCondition());
+            // a subclass may execute differently, so only the options of a BaseCommand are compiled
+            BaseCommand compiled;
+            if (command.getClass() == BaseCommand.class) {
+                compiled = (BaseCommand) command;
+            } else if (baseCommandViews) {
+                compiled = new BaseCommand(command.getName(), optionsOf(command), mainCommandAdapter);
+            } else {
+                commandsAsIs.add(command);
+                executors.add(null);
+                return;
+            }
+            commandsAsIs.add(null);
+            MainCommand mainCommand = mainCommandAdapter.get(command.getName());
+            OptionAdapter optionAdapter = mainCommand.getOptions();
+            optionVersions.putIfAbsent(optionAdapter, optionAdapter.version());
+            CommandConfig config = mainCommand.getConfig();
+            executors.add(config.concurrentOptions() ? config.optionExecutor() : null);
+            for (List<RunningOption> group : compiled.executionGroups(optionAdapter)) {
+                int groupStart = tasks.size();
+                for (RunningOption option : group) {
+                    tasks.add(optionAdapter.get(option.getName()).task());
+                    options.add(option.getName());
+                    arguments.add(List.copyOf(option.getArgs()));
+                    groupEnds.add(groupStart + group.size());
+                    dependencies.add(stepsOf(BaseCommand.dependenciesOf(option, group, optionAdapter), group, groupStart));
+                }
+            }
+            for (Node child : command.getChildren()) {
+                add((Command) child);
+            }
+            blockEnds.set(index, commands.size());
+        }
+
+        // the views of the trees have no duplicate options, so they fit in a map like the options of a parsed statement
+        private static Map<String, List<String>> optionsOf(Command command) {
+            Map<String, List<String>> options = new LinkedHashMap<>();
+            for (String option : command.getOptions()) {
+                List<String> args = command.getArguments(option);
+                options.put(option, args == null ? List.of() : args);
+            }
+            return options;
+        }
+
+        private static int[] stepsOf(List<RunningOption> dependencies, List<RunningOption> group, int groupStart) {
+            if (dependencies.isEmpty()) {
+                return null;
+            }
+            int[] steps = new int[dependencies.size()];
+            for (int i = 0; i < steps.length; i++) {
+                for (int j = 0; j < group.size(); j++) {
+                    if (group.get(j) == dependencies.get(i)) {
+                        steps[i] = groupStart + j;
+                        break;
+                    }
+                }
+            }
+            return steps;
+        }
+    }
+}
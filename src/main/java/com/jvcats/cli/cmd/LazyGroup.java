@@ -0,0 +1,41 @@
+package com.jvcats.cli.cmd;
+
+/**
+ * This class represents a group of main commands that are registered the first time one of them is looked up.
+ */
+public class LazyGroup {
+    private final Runnable loader;
+    private volatile boolean loaded;
+    private boolean loading;
+
+    /**
+     * Using this constructor is discouraged, one should call registerGroup() from CommandParser instead
+     *
+     * @param loader The logic to register the commands of the group.
+     */
+    public LazyGroup(Runnable loader) {
+        this.loader = loader;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Registers the commands of the group if they are not registered yet.
+     * Other threads wait until the loading has finished, while the loading thread itself may look up the commands again.
+     * If the loader throws, the group is not loaded and the next lookup tries again.
+     */
+    public synchronized void load() {
+        if (loaded || loading) {
+            return;
+        }
+        loading = true;
+        try {
+            loader.run();
+            loaded = true;
+        } finally {
+            loading = false;
+        }
+    }
+}
@@ -1,19 +1,100 @@
 package com.jvcats.cli.cmd;
 
-import java.util.HashMap;
-import java.util.Map;
+import com.jvcats.cli.admission.AdmissionController;
+import com.jvcats.cli.journal.CommandJournal;
+import com.jvcats.cli.var.Variables;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is used to store the main commands of a parser.
+ * Main commands can also be added as lazy groups, which are loaded the first time one of their commands is looked up.
  */
 public class MainCommandAdapter {
-    private final Map<String, MainCommand> options = new HashMap<>();
+    private final Map<String, MainCommand> options = new ConcurrentHashMap<>();
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private final Map<String, LazyGroup> groups = new ConcurrentHashMap<>();
+    private final List<Map.Entry<String, LazyGroup>> namespaces = new CopyOnWriteArrayList<>();
+    private volatile AdmissionController admissionController;
+    private volatile Variables variables;
+    private volatile CommandJournal journal;
+    private final AtomicInteger version = new AtomicInteger();
 
     public void put(String key, MainCommand mainCommand) {
         options.put(key, mainCommand);
+        names.putIfAbsent(key, key);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns a number that changes whenever a main command or a lazy group is added or removed, so that views of the names can be refreshed.
+     *
+     * @return The version of the main command names.
+     */
+    public int version() {
+        return version.get();
+    }
+
+    /**
+     * Sets the admission controller that the commands created from these main commands execute their options under.
+     *
+     * @param admissionController The admission controller, or null to execute without limits.
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Returns the admission controller.
+     *
+     * @return The admission controller, or null if it is not set.
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * Sets the variables that the references in the arguments of the commands created from these main commands are expanded with.
+     *
+     * @param variables The variables, or null to pass the arguments as they are.
+     */
+    public void setVariables(Variables variables) {
+        this.variables = variables;
+    }
+
+    /**
+     * Returns the variables.
+     *
+     * @return The variables, or null if they are not set.
+     */
+    public Variables getVariables() {
+        return variables;
+    }
+
+    /**
+     * Sets the journal that the commands created from these main commands append themselves to when they start to execute,
+     * after they were admitted and before their first task runs.
+     *
+     * @param journal The journal, or null to execute without journaling.
+     */
+    public void setJournal(CommandJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Returns the journal.
+     *
+     * @return The journal, or null if it is not set.
+     */
+    public CommandJournal getJournal() {
+        return journal;
     }
 
     public MainCommand get(String key) {
+        loadGroup(key);
         MainCommand mainCommand = options.get(key);
         if (mainCommand == null) {
             throw new IllegalArgumentException("Main command not found: " + key);
@@ -21,13 +102,98 @@ public class MainCommandAdapter {
         return mainCommand;
     }
 
+    /**
+     * Adds a lazy group for the given main command names.
+     *
+     * @param keys  The main command names.
+     * @param group The group to load when one of the names is looked up.
+     */
+    public void putGroup(Collection<String> keys, LazyGroup group) {
+        for (String key : keys) {
+            groups.put(key, group);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Adds a lazy group for all main command names starting with the given namespace.
+     * The group is only loaded when a name is looked up that is not registered.
+     *
+     * @param namespace The prefix of the main command names.
+     * @param group     The group to load when a name in the namespace is looked up.
+     */
+    public void putNamespace(String namespace, LazyGroup group) {
+        namespaces.add(Map.entry(namespace, group));
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns the registered instance of the given name, so that parsed commands share one string per name.
+     *
+     * @param key The name to look up.
+     * @return The registered name, or the given name if it is not registered.
+     */
+    public String canonicalName(String key) {
+        String name = names.get(key);
+        return name == null ? key : name;
+    }
+
+    /**
+     * Returns the names of the registered main commands, without the ones of lazy groups that are not loaded yet.
+     *
+     * @return The main command names.
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(options.keySet());
+    }
+
+    /**
+     * Returns the main command names of the lazy groups that are not loaded yet.
+     *
+     * @return The main command names of the lazy groups.
+     */
+    public Set<String> lazyNames() {
+        return Collections.unmodifiableSet(groups.keySet());
+    }
+
     public boolean containsKey(String key) {
+        loadGroup(key);
         return options.containsKey(key);
     }
 
     public void remove(String key) {
+        loadGroup(key);
+        names.remove(key);
         if (options.remove(key) == null) {
             throw new IllegalArgumentException("Main command not found: " + key);
         }
+        version.incrementAndGet();
+    }
+
+    private void loadGroup(String key) {
+        if (groups.isEmpty() && namespaces.isEmpty()) {
+            return;
+        }
+        LazyGroup group = groups.get(key);
+        if (group != null) {
+            group.load();
+            // the group stays visible until it is loaded, so that other threads wait for it
+            if (group.isLoaded()) {
+                groups.values().removeIf(g -> g == group);
+            }
+            return;
+        }
+        if (namespaces.isEmpty() || options.containsKey(key)) {
+            return;
+        }
+        for (Map.Entry<String, LazyGroup> namespace : namespaces) {
+            if (key.startsWith(namespace.getKey())) {
+                namespace.getValue().load();
+                if (namespace.getValue().isLoaded()) {
+                    namespaces.remove(namespace);
+                }
+                return;
+            }
+        }
     }
 }
@@ -2,8 +2,19 @@ package com.jvcats.cli.cmd;
 
 import com.jvcats.cli.CommandTask;
 
+import java.util.Set;
+
 /**
  * This class represents an option for a command.
+ * The dependencies are the names of the options that have to finish before this option runs.
  */
-public record Option(int priority, CommandTask task) {
+public record Option(int priority, CommandTask task, Set<String> dependencies) {
+
+    public Option {
+        dependencies = dependencies == null ? Set.of() : Set.copyOf(dependencies);
+    }
+
+    public Option(int priority, CommandTask task) {
+        this(priority, task, Set.of());
+    }
 }
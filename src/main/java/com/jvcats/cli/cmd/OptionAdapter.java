@@ -1,16 +1,31 @@
 package com.jvcats.cli.cmd;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This class is used to store the options of a main command.
  */
 public class OptionAdapter {
     private final Map<String, Option> options = new HashMap<>();
+    private final Map<String, String> names = new HashMap<>();
+    private volatile int version;
 
     public void put(String key, Option option) {
         options.put(key, option);
+        names.putIfAbsent(key, key);
+        version++;
+    }
+
+    /**
+     * Returns a number that changes whenever an option is added, replaced or removed, so that views of the options can be refreshed.
+     *
+     * @return The version of the option names.
+     */
+    public int version() {
+        return version;
     }
 
     public Option get(String key) {
@@ -21,13 +36,41 @@ public class OptionAdapter {
         return option;
     }
 
+    /**
+     * Returns the registered instance of the given name, so that parsed commands share one string per name.
+     *
+     * @param key The name to look up.
+     * @return The registered name, or the given name if it is not registered.
+     */
+    public String canonicalName(String key) {
+        String name = names.get(key);
+        return name == null ? key : name;
+    }
+
+    public Set<String> names() {
+        return Collections.unmodifiableSet(options.keySet());
+    }
+
     public boolean containsKey(String key) {
         return options.containsKey(key);
     }
 
+    /**
+     * Replaces every registration of the given option, including the ones under other option names.
+     *
+     * @param oldOption The option to replace.
+     * @param newOption The new option.
+     */
+    public void replace(Option oldOption, Option newOption) {
+        options.replaceAll((key, option) -> option == oldOption ? newOption : option);
+        version++;
+    }
+
     public void remove(String key) {
+        names.remove(key);
         if (options.remove(key) == null) {
             throw new IllegalArgumentException("Option not found: " + key);
         }
+        version++;
     }
 }
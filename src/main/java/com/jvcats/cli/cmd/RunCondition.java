@@ -0,0 +1,34 @@
+package com.jvcats.cli.cmd;
+
+/**
+ * This enum defines when a statement is executed, depending on the outcome of the statement before it in the same block,
+ * or of the options of the statement owning the block if it is the first one. A statement fails if it throws an exception.
+ */
+public enum RunCondition {
+    /**
+     * The statement is executed if the previous one completed, otherwise the failure of the previous one is thrown.
+     */
+    ALWAYS,
+    /**
+     * The statement is executed only if the previous one completed, as after the and operator.
+     */
+    ON_SUCCESS,
+    /**
+     * The statement is executed only if the previous one failed, as after the or operator.
+     */
+    ON_FAILURE;
+
+    /**
+     * Checks if a statement with this condition is executed after the given outcome.
+     * A statement that is not executed passes the outcome on to the next one.
+     *
+     * @param failure The failure of the previous statement, or null if it completed.
+     * @return True if the statement is executed, false otherwise.
+     */
+    public boolean holdsAfter(Exception failure) {
+        return switch (this) {
+            case ALWAYS, ON_SUCCESS -> failure == null;
+            case ON_FAILURE -> failure != null;
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package com.jvcats.cli.diag;
+
+/**
+ * This class represents an error found while parsing a command line.
+ *
+ * @param kind           the kind of the error.
+ * @param line           the line number, starting from 1, counted by the prepare() calls of the parser.
+ * @param column         the column of the token in the line, starting from 1, or 0 if unknown.
+ * @param statementIndex the index of the statement in the prepared command line, starting from 0.
+ * @param token          the token that caused the error.
+ * @param suggestion     the closest registered name, or null if there is none.
+ */
+public record Diagnostic(Kind kind, int line, int column, int statementIndex, String token, String suggestion) {
+
+    public enum Kind {
+        ILLEGAL_COMMAND("Unknown command: "),
+        ILLEGAL_OPTION("Unknown option: "),
+        UNEXPECTED_BLOCK_END("Unexpected end of block: "),
+        UNCLOSED_BLOCK("Unclosed block: "),
+        UNCLOSED_QUOTE("Unclosed quote: "),
+        ILLEGAL_MACRO_ARGUMENTS("Wrong number of arguments for macro: "),
+        INCOMPLETE_STATEMENT("Incomplete statement: ");
+
+        private final String message;
+
+        Kind(String message) {
+            this.message = message;
+        }
+    }
+
+    @Override
+    public String toString() {
+        String message = kind.message + token + " at " + line + ":" + column + " (statement " + statementIndex + ")";
+        return suggestion == null ? message : message + ", did you mean " + suggestion + "?";
+    }
+}
@@ -0,0 +1,172 @@
+package com.jvcats.cli.diag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * This class collects the diagnostics of one or more parsers without locking.
+ * Without a sink, the diagnostics are kept until they are drained. With a sink, they are passed to it on the executor so that parsing
+ * is never blocked by logging, and they are not kept, as nobody may drain them in a long-running parser.
+ */
+public class Diagnostics {
+    private final Queue<Diagnostic> collected = new ConcurrentLinkedQueue<>();
+    private final Queue<Diagnostic> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean delivering = new AtomicBoolean();
+    private final Consumer<Diagnostic> sink;
+    private final Executor executor;
+
+    /**
+     * Creates a diagnostics channel that only collects the diagnostics.
+     */
+    public Diagnostics() {
+        this(null, null);
+    }
+
+    /**
+     * Creates a diagnostics channel that passes the diagnostics to the sink on a virtual thread.
+     *
+     * @param sink The sink to pass the diagnostics to, e.g. a logger.
+     */
+    public Diagnostics(Consumer<Diagnostic> sink) {
+        this(sink, Thread.ofVirtual()::start);
+    }
+
+    /**
+     * Creates a diagnostics channel that passes the diagnostics to the sink on the given executor.
+     * The sink is never called concurrently, and receives the diagnostics in the order they were reported.
+     *
+     * @param sink     The sink to pass the diagnostics to, e.g. a logger.
+     * @param executor The executor to call the sink on.
+     */
+    public Diagnostics(Consumer<Diagnostic> sink, Executor executor) {
+        this.sink = sink;
+        this.executor = executor;
+    }
+
+    /**
+     * Reports a diagnostic.
+     *
+     * @param diagnostic The diagnostic to report.
+     * @throws RuntimeException If the executor does not accept the delivery, e.g. when it was shut down.
+     */
+    public void report(Diagnostic diagnostic) {
+        if (sink == null) {
+            collected.offer(diagnostic);
+            return;
+        }
+        pending.offer(diagnostic);
+        if (delivering.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::deliver);
+            } catch (RuntimeException e) {
+                // e.g. the executor was shut down, the diagnostic stays pending and the next report tries to deliver it again
+                delivering.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Removes and returns all diagnostics collected so far. Nothing is collected if there is a sink.
+     *
+     * @return The collected diagnostics.
+     */
+    public List<Diagnostic> drain() {
+        List<Diagnostic> result = new ArrayList<>();
+        drainTo(result);
+        return result;
+    }
+
+    /**
+     * Removes all diagnostics collected so far and adds them to the given collection. Nothing is collected if there is a sink.
+     *
+     * @param target The collection to add the diagnostics to.
+     * @return The number of diagnostics added.
+     */
+    public int drainTo(Collection<? super Diagnostic> target) {
+        int count = 0;
+        Diagnostic diagnostic;
+        while ((diagnostic = collected.poll()) != null) {
+            target.add(diagnostic);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks if any diagnostic has been collected and not drained yet.
+     *
+     * @return True if there is no diagnostic, false otherwise.
+     */
+    public boolean isEmpty() {
+        return collected.isEmpty();
+    }
+
+    /**
+     * Finds the registered name closest to the given token.
+     *
+     * @param token The unknown token.
+     * @param names The registered names.
+     * @return The closest name within an edit distance of 2, or null if there is none.
+     */
+    public static String suggest(String token, Collection<String> names) {
+        String best = null;
+        int bestDistance = 3;
+        for (String name : names) {
+            if (Math.abs(name.length() - token.length()) >= bestDistance) {
+                continue;
+            }
+            int distance = distance(token, name, bestDistance);
+            if (distance < bestDistance) {
+                best = name;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private static int distance(String a, String b, int limit) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin >= limit) {
+                return limit;
+            }
+            int[] temp = previous;
+            previous = current;
+            current = temp;
+        }
+        return previous[b.length()];
+    }
+
+    private void deliver() {
+        do {
+            Diagnostic diagnostic;
+            while ((diagnostic = pending.poll()) != null) {
+                try {
+                    sink.accept(diagnostic);
+                } catch (RuntimeException ignored) {
+                    // a failing sink must not stop the delivery of the other diagnostics
+                }
+            }
+            delivering.set(false);
+            // a diagnostic may have been offered after the last poll but before the flag was reset
+        } while (!pending.isEmpty() && delivering.compareAndSet(false, true));
+    }
+}
@@ -0,0 +1,227 @@
+package com.jvcats.cli.exec;
+
+import com.jvcats.cli.cmd.Command;
+import com.jvcats.cli.cmd.RunCondition;
+import com.jvcats.cli.tree.Node;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The cancellation scope of an executing statement. The scopes form a tree like the statements: cancelling a scope
+ * cancels the scopes of the statements in its block and interrupts the threads executing in them.
+ * A task can check the scope of the statement it belongs to with current() to stop early.
+ */
+public final class CancellationScope {
+    private static final ThreadLocal<CancellationScope> CURRENT = new ThreadLocal<>();
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, runnable -> Thread.ofPlatform().name("statement-timeout").daemon().unstarted(runnable));
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Execution execution;
+    private final Set<CancellationScope> children = ConcurrentHashMap.newKeySet();
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private volatile StatementOutcome.Status reason;
+
+    CancellationScope(Execution execution) {
+        this.execution = execution;
+    }
+
+    /**
+     * Returns the scope of the statement executing on the current thread.
+     *
+     * @return the scope, or null if the statement is not executed by executeAsync() of a parser.
+     */
+    public static CancellationScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Throws a CancellationException if the scope of the current thread is cancelled.
+     */
+    public static void checkpoint() {
+        CancellationScope scope = CURRENT.get();
+        if (scope != null) {
+            scope.throwIfCancelled();
+        }
+    }
+
+    /**
+     * Returns whether the scope is cancelled, either directly, by its parent or by a timeout.
+     *
+     * @return true if the scope is cancelled.
+     */
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * Throws a CancellationException if the scope is cancelled.
+     */
+    public void throwIfCancelled() {
+        if (reason != null) {
+            throw new CancellationException(reason == StatementOutcome.Status.TIMED_OUT ? "Statement timed out" : "Statement cancelled");
+        }
+    }
+
+    /**
+     * Cancels the scope and the scopes of its block.
+     */
+    public void cancel() {
+        cancel(StatementOutcome.Status.CANCELLED);
+    }
+
+    /**
+     * Calls the callable with this scope bound to the current thread, so that it is interrupted when the scope is cancelled.
+     * This is used to run tasks of the statement on other threads.
+     *
+     * @param callable The code to run.
+     * @param <T>      The type of the result.
+     * @return The result of the callable.
+     * @throws Exception If the callable fails.
+     */
+    public <T> T call(Callable<T> callable) throws Exception {
+        CancellationScope previous = CURRENT.get();
+        Thread thread = Thread.currentThread();
+        CURRENT.set(this);
+        // a nested call on the same thread leaves the thread to the outer one
+        boolean added = threads.add(thread);
+        try {
+            throwIfCancelled();
+            return callable.call();
+        } finally {
+            if (added) {
+                // cancel() interrupts under the same lock, so no interrupt arrives after the thread has left
+                synchronized (threads) {
+                    threads.remove(thread);
+                }
+            }
+            if (reason != null) {
+                // an interrupt meant for the cancelled scope must not leak into the next work of the thread
+                Thread.interrupted();
+            }
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Executes a statement in a new scope under this one: first its options, then the statements of its block, each of which
+     * checks for cancellation before it starts. The statements whose run condition does not hold are reported as skipped. The outcome of the statement is reported to the execution,
+     * and the statements of the block that were not started are reported when the statement does not complete.
+     *
+     * @param statement The statement.
+     * @param timeout   The timeout of the statement, zero for none.
+     * @param options   The code executing the options of the statement.
+     * @param block     The statements of the block.
+     * @throws Exception If the statement fails, a TimeoutException if it timed out and a CancellationException if it was cancelled.
+     */
+    public void execute(Command statement, Duration timeout, Callable<Void> options, List<Node> block) throws Exception {
+        throwIfCancelled();
+        CancellationScope scope = new CancellationScope(execution);
+        children.add(scope);
+        if (reason != null) {
+            // cancelled while the child was added, make sure it sees it
+            scope.cancel(reason);
+        }
+        Execution.Report report = execution.started(statement);
+        ScheduledFuture<?> timer = timeout.isZero() || timeout.isNegative() ? null
+                : TIMER.schedule(() -> scope.cancel(StatementOutcome.Status.TIMED_OUT), timeout.toNanos(), TimeUnit.NANOSECONDS);
+        long start = System.nanoTime();
+        int next = 0;
+        try {
+            Exception failure = null;
+            try {
+                scope.call(options);
+            } catch (Exception e) {
+                failure = e;
+            }
+            while (next < block.size()) {
+                scope.throwIfCancelled();
+                Command child = (Command) block.get(next);
+                if (!child.getCondition().holdsAfter(failure)) {
+                    if (child.getCondition() == RunCondition.ALWAYS) {
+                        throw failure;
+                    }
+                    next++;
+                    execution.notStarted(child, false);
+                    continue;
+                }
+                next++;
+                failure = null;
+                try {
+                    scope.call(() -> {
+                        child.execute();
+                        return null;
+                    });
+                } catch (Exception e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            // a task that saw the cancellation returns early, so the statement did not complete
+            scope.throwIfCancelled();
+            report.finish(StatementOutcome.Status.COMPLETED, System.nanoTime() - start, null);
+        } catch (Exception e) {
+            StatementOutcome.Status status = scope.reason == null ? StatementOutcome.Status.FAILED : scope.reason;
+            Exception thrown = switch (status) {
+                case TIMED_OUT -> timeoutException(statement, timeout, e);
+                case CANCELLED -> e instanceof CancellationException ? e : cancellationException(e);
+                default -> e;
+            };
+            report.finish(status, System.nanoTime() - start, thrown);
+            for (int i = next; i < block.size(); i++) {
+                execution.notStarted(block.get(i), status == StatementOutcome.Status.CANCELLED);
+            }
+            throw thrown;
+        } finally {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            children.remove(scope);
+        }
+    }
+
+    void cancel(StatementOutcome.Status status) {
+        if (reason != null) {
+            return;
+        }
+        reason = status;
+        for (CancellationScope child : children) {
+            // the block of a timed out statement is cancelled as part of it
+            child.cancel(StatementOutcome.Status.CANCELLED);
+        }
+        synchronized (threads) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private static TimeoutException timeoutException(Command statement, Duration timeout, Exception cause) {
+        if (cause instanceof TimeoutException e) {
+            return e;
+        }
+        TimeoutException e = new TimeoutException("Statement " + statement.getName() + " timed out after " + timeout);
+        e.initCause(cause);
+        return e;
+    }
+
+    private static CancellationException cancellationException(Exception cause) {
+        CancellationException e = new CancellationException("Statement cancelled");
+        e.initCause(cause);
+        return e;
+    }
+}
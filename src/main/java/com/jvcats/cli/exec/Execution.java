@@ -0,0 +1,168 @@
+package com.jvcats.cli.exec;
+
+import com.jvcats.cli.cmd.Command;
+import com.jvcats.cli.tree.Node;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The handle of a command tree executing in the background. The execution can be cancelled, which cancels the executing
+ * statement and its block and skips the statements after it, and every statement is reported with how it ended.
+ * The statements whose execution was shared by a coalescer are not reported.
+ */
+public final class Execution {
+    private final CancellationScope scope = new CancellationScope(this);
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final List<Report> reports = new ArrayList<>();
+
+    final class Report {
+        private final Command statement;
+        private StatementOutcome outcome;
+
+        private Report(Command statement) {
+            this.statement = statement;
+        }
+
+        void finish(StatementOutcome.Status status, long elapsedNanos, Throwable cause) {
+            synchronized (reports) {
+                outcome = new StatementOutcome(statement, status, Duration.ofNanos(elapsedNanos), cause);
+            }
+        }
+    }
+
+    private Execution() {
+    }
+
+    /**
+     * Starts executing the command tree on the executor.
+     *
+     * @param head     The head of the command tree.
+     * @param executor The executor to run the tree on, it runs the statements one after another on one of its threads.
+     * @return The handle of the execution.
+     */
+    public static Execution start(Command head, Executor executor) {
+        Execution execution = new Execution();
+        executor.execute(() -> {
+            try {
+                if (head != null) {
+                    execution.scope.call(() -> {
+                        head.execute();
+                        return null;
+                    });
+                }
+                execution.done.complete(null);
+            } catch (Throwable e) {
+                execution.done.completeExceptionally(e);
+            }
+        });
+        return execution;
+    }
+
+    /**
+     * Cancels the execution. The executing tasks are interrupted and can check CancellationScope.current() to stop;
+     * the statements that were not started are skipped.
+     */
+    public void cancel() {
+        scope.cancel();
+    }
+
+    /**
+     * Returns whether the execution has ended.
+     *
+     * @return true if all statements have ended or were skipped.
+     */
+    public boolean isDone() {
+        return done.isDone();
+    }
+
+    /**
+     * Waits for the execution to end.
+     *
+     * @throws Exception The exception of the statement that ended the execution: a TimeoutException if it timed out and a CancellationException if it was cancelled.
+     */
+    public void await() throws Exception {
+        try {
+            done.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Waits for the execution to end, at most for the given time.
+     *
+     * @param timeout The time to wait.
+     * @return true if the execution ended, false if it is still executing.
+     * @throws Exception The exception of the statement that ended the execution.
+     */
+    public boolean await(Duration timeout) throws Exception {
+        try {
+            done.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Returns the outcomes of the statements that have ended or were skipped, in the order the statements were started;
+     * the skipped statements follow the statement whose block they are in.
+     *
+     * @return the outcomes of the statements.
+     */
+    public List<StatementOutcome> getOutcomes() {
+        List<StatementOutcome> outcomes = new ArrayList<>();
+        synchronized (reports) {
+            for (Report report : reports) {
+                if (report.outcome != null) {
+                    outcomes.add(report.outcome);
+                }
+            }
+        }
+        return outcomes;
+    }
+
+    Report started(Command statement) {
+        Report report = new Report(statement);
+        if (!Command.NOP_COMMAND.equals(statement.getName())) {
+            synchronized (reports) {
+                reports.add(report);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Reports the statement and its block as not started.
+     */
+    void notStarted(Node node, boolean cancelled) {
+        StatementOutcome.Status status = cancelled ? StatementOutcome.Status.CANCELLED : StatementOutcome.Status.SKIPPED;
+        synchronized (reports) {
+            node.walk(n -> {
+                Command statement = (Command) n;
+                if (!Command.NOP_COMMAND.equals(statement.getName())) {
+                    Report report = new Report(statement);
+                    report.outcome = new StatementOutcome(statement, status, Duration.ZERO, null);
+                    reports.add(report);
+                }
+                return true;
+            });
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        if (e.getCause() instanceof Exception cause) {
+            return cause;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,42 @@
+package com.jvcats.cli.exec;
+
+import com.jvcats.cli.cmd.Command;
+
+import java.time.Duration;
+
+/**
+ * This record reports how a statement of an execution ended.
+ *
+ * @param statement The statement.
+ * @param status    How the statement ended.
+ * @param elapsed   The time the statement executed, including its block; zero if it was not started.
+ * @param cause     The exception that ended the statement, or null if it completed or was not started.
+ */
+public record StatementOutcome(Command statement, Status status, Duration elapsed, Throwable cause) {
+
+    /**
+     * This enum defines how a statement ended.
+     */
+    public enum Status {
+        /**
+         * The statement and its block completed.
+         */
+        COMPLETED,
+        /**
+         * The statement or a statement of its block threw an exception.
+         */
+        FAILED,
+        /**
+         * The execution was cancelled while the statement was executing, or before it was started.
+         */
+        CANCELLED,
+        /**
+         * The statement took longer than the timeout of its command.
+         */
+        TIMED_OUT,
+        /**
+         * The statement was not started because a statement before it failed or timed out.
+         */
+        SKIPPED
+    }
+}
@@ -0,0 +1,42 @@
+package com.jvcats.cli.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * This event is recorded when the command factory takes longer than the threshold to create a command.
+ */
+@Name("com.jvcats.cli.Build")
+@Label("Build Command")
+@Category({"CLI Tool", "Parser"})
+@Description("Creation of a command by the command factory")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class BuildEvent extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Options")
+    int options;
+
+    @Label("Arguments")
+    int arguments;
+
+    /**
+     * Sets the fields of the event.
+     *
+     * @param command   The main command name.
+     * @param options   The number of options.
+     * @param arguments The number of arguments of all options.
+     */
+    public void set(String command, int options, int arguments) {
+        this.command = command;
+        this.options = options;
+        this.arguments = arguments;
+    }
+}
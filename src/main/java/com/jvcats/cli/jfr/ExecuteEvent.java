@@ -0,0 +1,45 @@
+package com.jvcats.cli.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * This event is recorded when the task of an option takes longer than the threshold to run.
+ */
+@Name("com.jvcats.cli.Execute")
+@Label("Execute Option")
+@Category({"CLI Tool", "Execution"})
+@Description("Run of the task of an option")
+@Threshold("10 ms")
+public final class ExecuteEvent extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Option")
+    String option;
+
+    @Label("Arguments")
+    int arguments;
+
+    @Label("Failed")
+    boolean failed;
+
+    /**
+     * Sets the fields of the event.
+     *
+     * @param command   The main command name.
+     * @param option    The option name.
+     * @param arguments The number of arguments.
+     * @param failed    Whether the task threw an exception.
+     */
+    public void set(String command, String option, int arguments, boolean failed) {
+        this.command = command;
+        this.option = option;
+        this.arguments = arguments;
+        this.failed = failed;
+    }
+}
@@ -0,0 +1,44 @@
+package com.jvcats.cli.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * This event is recorded when resolving the tokenized statements into commands of the command tree takes longer than the threshold.
+ * The time includes building the commands.
+ */
+@Name("com.jvcats.cli.Resolve")
+@Label("Resolve")
+@Category({"CLI Tool", "Parser"})
+@Description("Resolution of tokenized statements into commands of the command tree")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class ResolveEvent extends Event {
+    @Label("Command")
+    @Description("The command of the first statement")
+    String command;
+
+    @Label("Statements")
+    int statements;
+
+    @Label("Tokens")
+    int tokens;
+
+    /**
+     * Sets the fields of the event.
+     *
+     * @param command    The command of the first statement.
+     * @param statements The number of statements.
+     * @param tokens     The number of tokens of the statements.
+     */
+    public void set(String command, int statements, int tokens) {
+        this.command = command;
+        this.statements = statements;
+        this.tokens = tokens;
+    }
+}
@@ -0,0 +1,47 @@
+package com.jvcats.cli.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * This event is recorded when a command line takes longer than the threshold to be split into statements and tokens.
+ */
+@Name("com.jvcats.cli.Tokenize")
+@Label("Tokenize")
+@Category({"CLI Tool", "Parser"})
+@Description("Splitting of a command line into statements and tokens")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class TokenizeEvent extends Event {
+    @Label("Line")
+    int line;
+
+    @Label("Length")
+    int length;
+
+    @Label("Statements")
+    int statements;
+
+    @Label("Tokens")
+    int tokens;
+
+    /**
+     * Sets the fields of the event.
+     *
+     * @param line       The line number.
+     * @param length     The length of the line.
+     * @param statements The number of statements completed by the line.
+     * @param tokens     The number of tokens of these statements.
+     */
+    public void set(int line, int length, int statements, int tokens) {
+        this.line = line;
+        this.length = length;
+        this.statements = statements;
+        this.tokens = tokens;
+    }
+}
@@ -0,0 +1,545 @@
+package com.jvcats.cli.journal;
+
+import com.jvcats.cli.CommandParser;
+import com.jvcats.cli.cmd.Command;
+import com.jvcats.cli.var.VariableScope;
+import com.jvcats.cli.var.VariableSource;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * The command journal is a write-ahead log of executed statements, kept in segment files of a directory.
+ * Concurrent appends are written and forced to the disk together by one thread (group commit), so the cost of an fsync is shared.
+ * Each statement is stored with its command name, options and arguments when it starts to execute, after it was admitted and before
+ * its first task runs, so the journal holds the statements that actually ran, in the order they started, and it can be replayed through a parser on restart.
+ * <p>
+ * The arguments are stored as they were parsed. If they refer to variables, the values the variables have when the statement starts are stored
+ * with them, and the statement is replayed with these values, so each option reads its arguments as it did when it ran.
+ * <p>
+ * A record is stored as its length, its CRC32C checksum and the statement. A torn record at the end of the last segment is ignored when replaying.
+ * If a write fails, the segment is cut back to the end of the last committed record, or the journal continues in a new segment if that fails too,
+ * so the records appended later are not hidden behind the failed one.
+ */
+public class CommandJournal implements Closeable {
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+    private final Path directory;
+    private final JournalConfig config;
+    private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+    private final SegmentOpener segmentOpener;
+    private final Thread committer;
+    private FileChannel segment;
+    private long segmentIndex;
+    private boolean closed;
+
+    private record Append(ByteBuffer records, CompletableFuture<Void> done) {
+    }
+
+    /**
+     * Creates a segment file and opens it for writing. The tests replace it to simulate failing writes.
+     */
+    @FunctionalInterface
+    interface SegmentOpener {
+        FileChannel open(Path file) throws IOException;
+    }
+
+    // queued by close() after the last append, so the committer stops once everything before it is committed
+    private static final Append CLOSE = new Append(null, null);
+
+    /**
+     * Opens the journal in the given directory with the default configuration. New statements are appended to a new segment.
+     *
+     * @param directory The directory of the segment files, it is created if it does not exist.
+     * @throws IOException If the directory cannot be read or created.
+     */
+    public CommandJournal(Path directory) throws IOException {
+        this(directory, new JournalConfig() {
+        });
+    }
+
+    /**
+     * Opens the journal in the given directory. New statements are appended to a new segment.
+     *
+     * @param directory The directory of the segment files, it is created if it does not exist.
+     * @param config    The journal configuration.
+     * @throws IOException If the directory cannot be read or created.
+     */
+    public CommandJournal(Path directory, JournalConfig config) throws IOException {
+        this(directory, config, CommandJournal::create);
+    }
+
+    CommandJournal(Path directory, JournalConfig config, SegmentOpener segmentOpener) throws IOException {
+        this.directory = directory;
+        this.config = config;
+        this.segmentOpener = segmentOpener;
+        Files.createDirectories(directory);
+        List<Path> segments = new ArrayList<>(segments());
+        // segments to which nothing was appended are started again
+        while (!segments.isEmpty() && Files.size(segments.getLast()) == 0) {
+            Files.delete(segments.removeLast());
+        }
+        if (!segments.isEmpty()) {
+            segmentIndex = indexOf(segments.getLast());
+            recover(segments.getLast());
+        }
+        openNextSegment();
+        committer = Thread.ofPlatform().name("command-journal").daemon().start(this::commitLoop);
+    }
+
+    /**
+     * Appends the statements and returns a future that completes when they are committed.
+     * The children of the commands are not included, so each statement of a tree has to be passed.
+     *
+     * @param statements The statements in the order of execution.
+     * @return A future completing when the statements are written, and forced to the disk if syncOnCommit() is true.
+     */
+    public CompletableFuture<Void> append(List<Command> statements) {
+        List<String> names = new ArrayList<>(statements.size());
+        List<List<String>> options = new ArrayList<>(statements.size());
+        List<List<List<String>>> arguments = new ArrayList<>(statements.size());
+        for (Command statement : statements) {
+            names.add(statement.getName());
+            List<String> statementOptions = statement.getOptions();
+            List<List<String>> statementArguments = new ArrayList<>(statementOptions.size());
+            for (String option : statementOptions) {
+                statementArguments.add(statement.getArguments(option));
+            }
+            options.add(statementOptions);
+            arguments.add(statementArguments);
+        }
+        return enqueue(encode(names, options, arguments, null));
+    }
+
+    /**
+     * Appends a statement that starts to execute and waits until it is committed, so that it is in the journal before any of its tasks runs.
+     * The options may repeat, each one with its own arguments. The arguments are stored as they were parsed, and if a variable scope is given,
+     * the variables they refer to are stored with the values they have in it, as the scopes that set them are not replayed.
+     * A variable that is not defined yet, e.g. one set by an earlier option of the statement, is not stored.
+     *
+     * @param name      The main command name.
+     * @param options   The option names.
+     * @param arguments The arguments of each option.
+     * @param variables The scope of the statement before its first task runs, or null if the arguments do not refer to variables.
+     * @throws IOException If the statement cannot be written.
+     */
+    public void appendStatement(String name, List<String> options, List<? extends List<String>> arguments, VariableScope variables) throws IOException {
+        Map<String, String> values = Map.of();
+        if (variables != null) {
+            values = new LinkedHashMap<>();
+            for (List<String> args : arguments) {
+                for (String arg : args) {
+                    for (String reference : variables.references(arg)) {
+                        String value = variables.get(reference);
+                        if (value != null) {
+                            values.put(reference, value);
+                        }
+                    }
+                }
+            }
+        }
+        join(enqueue(encode(List.of(name), List.of(options), List.of(arguments), List.of(values))));
+    }
+
+    private CompletableFuture<Void> enqueue(ByteBuffer records) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        // checked and queued under the lock of close(), so nothing is queued after the committer was told to stop
+        synchronized (this) {
+            if (closed) {
+                done.completeExceptionally(new IOException("Journal is closed"));
+                return done;
+            }
+            queue.add(new Append(records, done));
+        }
+        return done;
+    }
+
+    /**
+     * Appends the statements and waits until they are committed.
+     *
+     * @param statements The statements in the order of execution.
+     * @throws IOException If the statements cannot be written.
+     */
+    public void appendAndWait(List<Command> statements) throws IOException {
+        join(append(statements));
+    }
+
+    private static void join(CompletableFuture<Void> done) throws IOException {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Executes all statements of the journal with the given parser, in the order they were appended.
+     * Each statement is executed on its own, without its block, as the statements of the block that ran are journaled themselves.
+     * The variables stored with a statement are looked up before the variable source of the parser while it runs.
+     * A statement that fails does not stop the replay, as it may have failed when it ran first, and the first failure is thrown
+     * after all statements are executed, with the later ones suppressed.
+     * The journal of the parser is unset during the replay, so the parser should not execute anything else meanwhile.
+     *
+     * @param parser The parser with the commands registered.
+     * @return The number of statements executed.
+     * @throws Exception If a statement cannot be read or fails to execute.
+     */
+    public int replay(CommandParser parser) throws Exception {
+        CommandJournal journal = parser.getJournal();
+        parser.setJournal(null);
+        try {
+            return replayAll(parser);
+        } finally {
+            parser.setJournal(journal);
+        }
+    }
+
+    private int replayAll(CommandParser parser) throws Exception {
+        Exception failure = null;
+        int count = 0;
+        List<Path> segments = segments();
+        for (int i = 0; i < segments.size(); i++) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segments.get(i)));
+            int length;
+            while ((length = nextRecord(buffer)) >= 0) {
+                ByteBuffer record = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                Map<String, String> values = new HashMap<>();
+                Command statement = decode(record, parser, values);
+                VariableSource source = parser.getVariableSource();
+                if (!values.isEmpty()) {
+                    // the values stored with the statement take the place of the scopes that set them
+                    parser.setVariableSource(name -> values.containsKey(name) ? values.get(name) : source == null ? null : source.get(name));
+                }
+                try {
+                    statement.execute();
+                } catch (Exception e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                } finally {
+                    if (!values.isEmpty()) {
+                        parser.setVariableSource(source);
+                    }
+                }
+                count++;
+            }
+            // only the segment being written can end with a partial record
+            if (buffer.hasRemaining() && i < segments.size() - 1) {
+                throw new IOException("Corrupt journal segment: " + segments.get(i));
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return count;
+    }
+
+    /**
+     * Commits the pending appends and closes the journal.
+     *
+     * @throws IOException If the segment cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(CLOSE);
+        }
+        // the committer is not interrupted, as an interrupt during a write would close the channel
+        boolean interrupted = false;
+        while (committer.isAlive()) {
+            try {
+                committer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+    }
+
+    private void commitLoop() {
+        List<Append> batch = new ArrayList<>();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                Append first = queue.take();
+                closing = first == CLOSE;
+                if (!closing) {
+                    batch.add(first);
+                }
+                long delay = config.maxCommitDelay().toNanos();
+                long deadline = System.nanoTime() + delay;
+                while (!closing && batch.size() < config.maxBatchSize()) {
+                    long wait = deadline - System.nanoTime();
+                    Append next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    closing = next == CLOSE;
+                    if (!closing) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // only close() stops the committer, what was taken so far is committed
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Append> batch) {
+        long committed = -1;
+        try {
+            long size = 0;
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = batch.get(i).records();
+                size += buffers[i].remaining();
+            }
+            if (segment.size() > 0 && segment.size() + size > config.segmentSize()) {
+                segment.force(false);
+                segment.close();
+                openNextSegment();
+            }
+            committed = segment.position();
+            while (size > 0) {
+                size -= segment.write(buffers);
+            }
+            if (config.syncOnCommit()) {
+                segment.force(false);
+            }
+            for (Append append : batch) {
+                append.done().complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (committed >= 0) {
+                discardFrom(committed, e);
+            }
+            for (Append append : batch) {
+                append.done().completeExceptionally(e);
+            }
+        }
+    }
+
+    // removes what was written of a failed batch, as its statements do not run and a torn record would hide the later ones when replaying
+    private void discardFrom(long committed, Exception failure) {
+        try {
+            segment.truncate(committed);
+            segment.position(committed);
+            if (config.syncOnCommit()) {
+                segment.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+            // the rest of the segment cannot be trusted, the next records go to a new one
+            try {
+                segment.close();
+            } catch (IOException ignored) {
+                // the segment is left behind anyway
+            }
+            try {
+                openNextSegment();
+            } catch (IOException ex) {
+                failure.addSuppressed(ex);
+            }
+        }
+    }
+
+    /**
+     * Reads the header of the record at the position of the buffer and moves the position to the start of the statement.
+     *
+     * @param buffer The segment content.
+     * @return The length of the statement, or -1 if there is no complete and intact record, in which case the position is unchanged.
+     */
+    private static int nextRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return -1;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length < 0 || length > buffer.remaining() || checksum(buffer, length) != checksum) {
+            buffer.position(start);
+            return -1;
+        }
+        return length;
+    }
+
+    private static void recover(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int length;
+        while ((length = nextRecord(buffer)) >= 0) {
+            buffer.position(buffer.position() + length);
+        }
+        if (buffer.hasRemaining()) {
+            // cut the record torn by a crash, so that the segment is complete when a later one follows it
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.truncate(buffer.position());
+                channel.force(true);
+            }
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentIndex++;
+        segment = segmentOpener.open(directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX)));
+    }
+
+    private static FileChannel create(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX) && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // the values of the variables follow the options of a statement, if it has any
+    private static ByteBuffer encode(List<String> names, List<? extends List<String>> statementOptions,
+                                     List<? extends List<? extends List<String>>> statementArguments, List<Map<String, String>> statementValues) {
+        List<byte[]> records = new ArrayList<>(names.size());
+        int size = 0;
+        for (int s = 0; s < names.size(); s++) {
+            List<byte[]> parts = new ArrayList<>();
+            parts.add(names.get(s).getBytes(StandardCharsets.UTF_8));
+            List<String> options = statementOptions.get(s);
+            int length = 4 + parts.getFirst().length + 4;
+            List<Integer> argCounts = new ArrayList<>(options.size());
+            for (int o = 0; o < options.size(); o++) {
+                parts.add(options.get(o).getBytes(StandardCharsets.UTF_8));
+                List<String> args = statementArguments.get(s).get(o);
+                argCounts.add(args.size());
+                length += 4 + parts.getLast().length + 4;
+                for (String arg : args) {
+                    parts.add(arg.getBytes(StandardCharsets.UTF_8));
+                    length += 4 + parts.getLast().length;
+                }
+            }
+            Map<String, String> values = statementValues == null ? Map.of() : statementValues.get(s);
+            if (!values.isEmpty()) {
+                length += 4;
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    parts.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                    parts.add(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                    length += 8 + parts.get(parts.size() - 2).length + parts.getLast().length;
+                }
+            }
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+            record.position(HEADER_SIZE);
+            int part = 0;
+            putBytes(record, parts.get(part++));
+            record.putInt(options.size());
+            for (int count : argCounts) {
+                putBytes(record, parts.get(part++));
+                record.putInt(count);
+                for (int i = 0; i < count; i++) {
+                    putBytes(record, parts.get(part++));
+                }
+            }
+            if (!values.isEmpty()) {
+                record.putInt(values.size());
+                while (part < parts.size()) {
+                    putBytes(record, parts.get(part++));
+                }
+            }
+            record.putInt(0, length);
+            record.putInt(4, checksum(record.slice(HEADER_SIZE, length), length));
+            records.add(record.array());
+            size += record.capacity();
+        }
+        ByteBuffer result = ByteBuffer.allocate(size);
+        for (byte[] record : records) {
+            result.put(record);
+        }
+        return result.flip();
+    }
+
+    private static Command decode(ByteBuffer record, CommandParser parser, Map<String, String> values) throws IOException {
+        try {
+            Command command = parser.createCommand(getString(record));
+            int options = record.getInt();
+            for (int i = 0; i < options; i++) {
+                String option = getString(record);
+                String[] args = new String[record.getInt()];
+                for (int j = 0; j < args.length; j++) {
+                    args[j] = getString(record);
+                }
+                command.addOption(option);
+                command.addArguments(option, args);
+            }
+            if (record.hasRemaining()) {
+                int count = record.getInt();
+                for (int i = 0; i < count; i++) {
+                    values.put(getString(record), getString(record));
+                }
+            }
+            return command;
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed journal record", e);
+        }
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) throws EOFException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new EOFException("Truncated journal record");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int checksum(ByteBuffer buffer, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(buffer.position(), length));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,55 @@
+package com.jvcats.cli.journal;
+
+import java.time.Duration;
+
+/**
+ * This interface defines the configuration of a command journal.
+ * One can implement this interface to trade durability for throughput.
+ */
+public interface JournalConfig {
+
+    long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    int DEFAULT_MAX_BATCH_SIZE = 4096;
+
+    /**
+     * Sets the size of a segment file. A new segment is started when the current one would grow beyond this size.
+     * The default size is 64 MiB.
+     *
+     * @return the segment size in bytes.
+     */
+    default long segmentSize() {
+        return DEFAULT_SEGMENT_SIZE;
+    }
+
+    /**
+     * Sets how long a commit waits for more appends before the batch is written, so that concurrent appends share one fsync.
+     * The default delay is zero, in which case a batch holds the appends that arrived while the previous batch was written.
+     *
+     * @return the maximum commit delay.
+     */
+    default Duration maxCommitDelay() {
+        return Duration.ZERO;
+    }
+
+    /**
+     * Sets the maximum number of appends in one batch.
+     * The default value is 4096.
+     *
+     * @return the maximum batch size.
+     */
+    default int maxBatchSize() {
+        return DEFAULT_MAX_BATCH_SIZE;
+    }
+
+    /**
+     * Sets whether each batch is forced to the disk before the appends are acknowledged.
+     * If it is false, the appends are acknowledged once they are written to the file, and the operating system decides when they reach the disk.
+     * The default value is true.
+     *
+     * @return whether the batches should be forced to the disk.
+     */
+    default boolean syncOnCommit() {
+        return true;
+    }
+}
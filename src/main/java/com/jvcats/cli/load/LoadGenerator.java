@@ -0,0 +1,313 @@
+package com.jvcats.cli.load;
+
+import com.jvcats.cli.CommandParser;
+import com.jvcats.cli.ParserConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class replays a recorded file of command lines against a parser and reports the latency percentiles of
+ * prepare and execute separately. The commands and options found in the file are registered with stub tasks that
+ * take a configurable service time, so no real command is run, e.g.
+ * <pre>
+ * java -cp cli-tool.jar com.jvcats.cli.load.LoadGenerator commands.txt --rate 20000 --workers 4 --duration 30 --service-time 50
+ * </pre>
+ * With a target rate, every line has an intended start time and both of its latencies are measured from it: prepare until
+ * the line is prepared, and execute until the statements it completes have run. A stall in either stage delays the following
+ * lines and is counted for each of them. Without a rate, the workers replay the lines back to back,
+ * which measures throughput but hides stalls (coordinated omission); --expected-interval corrects for that.
+ * <p>
+ * Each worker has its own parser and replays the file in order from its own position, a line that does not
+ * complete a statement is prepared without executing.
+ * <p>
+ * Options:
+ * <pre>
+ * --rate N               target lines per second over all workers, 0 for back-to-back replay (default 0)
+ * --workers N            number of worker threads (default 1)
+ * --duration S           seconds to measure (default 10)
+ * --warmup S             seconds to run before measuring (default 2)
+ * --service-time US      service time of a stub task in microseconds (default 0)
+ * --spin                 busy-wait for the service time instead of parking
+ * --expected-interval US expected interval of back-to-back replay, for coordinated omission correction
+ * --quotes CHARS         quote characters of the file (default ")
+ * --end-of-statement C   end of statement character of the file (default ;)
+ * --blocks CHARS         block characters of the file (default {})
+ * </pre>
+ */
+public class LoadGenerator {
+    private final List<String> lines;
+    private final ParserConfig parserConfig;
+    private final long serviceNanos;
+    private final boolean spin;
+    private final Map<String, Set<String>> registry;
+    private final AtomicLong errors = new AtomicLong();
+
+    private LoadGenerator(List<String> lines, ParserConfig parserConfig, long serviceNanos, boolean spin) {
+        this.lines = lines;
+        this.parserConfig = parserConfig;
+        this.serviceNanos = serviceNanos;
+        this.spin = spin;
+        this.registry = discover(lines, parserConfig);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: LoadGenerator <file> [--rate N] [--workers N] [--duration S] [--warmup S] [--service-time US] [--spin]"
+                    + " [--expected-interval US] [--quotes CHARS] [--end-of-statement C] [--blocks CHARS]");
+            return;
+        }
+        Map<String, String> options = new HashMap<>();
+        boolean spin = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--spin")) {
+                spin = true;
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Invalid argument: " + args[i]);
+            }
+        }
+        String quotes = options.getOrDefault("quotes", "\"");
+        String eos = options.getOrDefault("end-of-statement", ";");
+        String blocks = options.getOrDefault("blocks", "{}");
+        ParserConfig parserConfig = new ParserConfig() {
+            @Override
+            public String quotes() {
+                return quotes;
+            }
+
+            @Override
+            public char endOfStatement() {
+                return eos.isEmpty() ? NO_EOS : eos.charAt(0);
+            }
+
+            @Override
+            public String blockChars() {
+                return blocks;
+            }
+
+            @Override
+            public void handleIllegalCommand(String part) {
+            }
+
+            @Override
+            public void handleIllegalOption(String part) {
+            }
+        };
+        List<String> lines = Files.readAllLines(Path.of(args[0])).stream().filter(line -> !line.isBlank()).toList();
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("No command lines in " + args[0]);
+        }
+        LoadGenerator generator = new LoadGenerator(lines, parserConfig,
+                TimeUnit.MICROSECONDS.toNanos(Long.parseLong(options.getOrDefault("service-time", "0"))), spin);
+        generator.run(Double.parseDouble(options.getOrDefault("rate", "0")),
+                Integer.parseInt(options.getOrDefault("workers", "1")),
+                TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "2"))),
+                TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "10"))),
+                TimeUnit.MICROSECONDS.toNanos(Long.parseLong(options.getOrDefault("expected-interval", "0"))));
+    }
+
+    private void run(double rate, int workers, long warmupNanos, long durationNanos, long expectedInterval) throws IOException, InterruptedException {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Invalid number of workers: " + workers);
+        }
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        // the intended start of the next line, shared so the workers together keep the target rate
+        AtomicLong sequence = new AtomicLong();
+        LatencyHistogram[][] results = new LatencyHistogram[workers][];
+        Thread[] threads = new Thread[workers];
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            threads[w] = Thread.ofPlatform().name("load-worker-" + w).start(() -> {
+                try {
+                    results[worker] = replay(worker * lines.size() / workers, interval, sequence, start, measureFrom, end, expectedInterval);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram prepare = new LatencyHistogram();
+        LatencyHistogram execute = new LatencyHistogram();
+        for (LatencyHistogram[] result : results) {
+            if (result != null) {
+                prepare.add(result[0]);
+                execute.add(result[1]);
+            }
+        }
+        double seconds = durationNanos / 1e9;
+        System.out.printf("%d lines, %d commands and %d options registered, %d workers, %s%n", lines.size(), registry.size(),
+                registry.values().stream().mapToInt(Set::size).sum(), workers,
+                rate > 0 ? String.format("target rate %.0f lines/s", rate) : "back-to-back replay");
+        System.out.printf("achieved %.0f lines/s, %.0f executions/s, %d errors%n", prepare.count() / seconds, execute.count() / seconds, errors.get());
+        System.out.printf("%-8s %10s %10s %10s %10s %10s%n", "(us)", "count", "p50", "p99", "p99.9", "max");
+        print("prepare", prepare);
+        print("execute", execute);
+    }
+
+    private LatencyHistogram[] replay(int position, long interval, AtomicLong sequence, long start, long measureFrom, long end,
+                                      long expectedInterval) throws Exception {
+        CommandParser parser = createParser();
+        LatencyHistogram prepare = new LatencyHistogram();
+        LatencyHistogram execute = new LatencyHistogram();
+        long previousEnd = System.nanoTime();
+        while (true) {
+            long intended;
+            if (interval > 0) {
+                intended = start + sequence.getAndIncrement() * interval;
+                long wait = intended - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                intended = previousEnd;
+            }
+            if (intended >= end) {
+                break;
+            }
+            String line = lines.get(position);
+            position = (position + 1) % lines.size();
+            long prepareStart = interval > 0 ? intended : System.nanoTime();
+            boolean complete;
+            try {
+                parser.prepare(line);
+                complete = parser.isCommandComplete();
+            } catch (Exception e) {
+                errors.incrementAndGet();
+                parser.clearRemainingCommand();
+                parser.detach();
+                previousEnd = System.nanoTime();
+                continue;
+            }
+            long prepareEnd = System.nanoTime();
+            boolean measured = intended >= measureFrom;
+            if (measured) {
+                prepare.record(prepareEnd - prepareStart, interval > 0 ? 0 : expectedInterval);
+            }
+            if (complete) {
+                // with a target rate the execution is also measured from the intended start, not from the end of prepare,
+                // so the time a late line waited is not left out
+                long executeStart = interval > 0 ? intended : prepareEnd;
+                try {
+                    parser.execute();
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                    parser.detach();
+                }
+                previousEnd = System.nanoTime();
+                if (measured) {
+                    execute.record(previousEnd - executeStart, interval > 0 ? 0 : expectedInterval);
+                }
+            } else {
+                previousEnd = prepareEnd;
+            }
+        }
+        return new LatencyHistogram[]{prepare, execute};
+    }
+
+    private CommandParser createParser() {
+        CommandParser parser = new CommandParser(parserConfig);
+        for (Map.Entry<String, Set<String>> entry : registry.entrySet()) {
+            parser.register(entry.getKey(), this::serve);
+            for (String option : entry.getValue()) {
+                parser.register(entry.getKey(), option, this::serve);
+            }
+        }
+        return parser;
+    }
+
+    private void serve(List<String> args) {
+        if (serviceNanos <= 0) {
+            return;
+        }
+        long until = System.nanoTime() + serviceNanos;
+        if (spin) {
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+        } else {
+            LockSupport.parkNanos(serviceNanos);
+        }
+    }
+
+    private static void print(String name, LatencyHistogram histogram) {
+        System.out.printf("%-8s %10d %10.1f %10.1f %10.1f %10.1f%n", name, histogram.count(), histogram.percentile(50) / 1e3,
+                histogram.percentile(99) / 1e3, histogram.percentile(99.9) / 1e3, histogram.max() / 1e3);
+    }
+
+    /**
+     * Finds the commands and options in the lines: the first word of a statement is a command, a word starting with "--"
+     * is a full option and every character of a word starting with "-" is a short option. Quoted words are skipped.
+     */
+    private static Map<String, Set<String>> discover(List<String> lines, ParserConfig parserConfig) {
+        Map<String, Set<String>> registry = new LinkedHashMap<>();
+        String blocks = parserConfig.blockChars();
+        String main = null;
+        StringBuilder word = new StringBuilder();
+        char quote = 0;
+        for (String line : lines) {
+            for (int i = 0; i <= line.length(); i++) {
+                char c = i < line.length() ? line.charAt(i) : parserConfig.delimiter();
+                if (quote != 0) {
+                    if (c == parserConfig.escape() && i + 1 < line.length()) {
+                        i++;
+                    } else if (c == quote) {
+                        quote = 0;
+                    }
+                    continue;
+                }
+                if (parserConfig.quotes().indexOf(c) >= 0 && word.isEmpty()) {
+                    quote = c;
+                    // a quoted word is an argument
+                    word.append(c);
+                    continue;
+                }
+                boolean statementEnd = c == parserConfig.endOfStatement() || blocks.indexOf(c) >= 0;
+                if (c == parserConfig.delimiter() || statementEnd) {
+                    if (!word.isEmpty()) {
+                        main = addWord(registry, main, word.toString());
+                        word.setLength(0);
+                    }
+                    if (statementEnd) {
+                        main = null;
+                    }
+                    continue;
+                }
+                word.append(c);
+            }
+            if (parserConfig.endOfStatement() == ParserConfig.NO_EOS && quote == 0 && blocks.isEmpty()) {
+                main = null;
+            }
+        }
+        return registry;
+    }
+
+    private static String addWord(Map<String, Set<String>> registry, String main, String word) {
+        if (main == null) {
+            registry.computeIfAbsent(word, k -> new LinkedHashSet<>());
+            return word;
+        }
+        if (word.startsWith(ParserConfig.FULL_OPTION_PREFIX)) {
+            String option = word.substring(word.lastIndexOf(ParserConfig.OPTION_PREFIX) + 1);
+            if (!option.isEmpty()) {
+                registry.get(main).add(option);
+            }
+        } else if (word.startsWith(ParserConfig.OPTION_PREFIX)) {
+            for (char c : word.substring(1).toCharArray()) {
+                registry.get(main).add(String.valueOf(c));
+            }
+        }
+        return main;
+    }
+}
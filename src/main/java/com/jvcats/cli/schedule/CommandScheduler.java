@@ -0,0 +1,220 @@
+package com.jvcats.cli.schedule;
+
+import com.jvcats.cli.CommandParser;
+import com.jvcats.cli.cmd.Command;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * The command scheduler runs commands after a delay or periodically. The schedules are kept in a hierarchical timing wheel
+ * driven by one thread, so the cost of a tick does not depend on the number of schedules, and the due commands are executed
+ * on a bounded executor. A command line is parsed once when it is scheduled and the prepared command is executed on every run.
+ * <p>
+ * The delays and periods are rounded up to whole ticks. Periodic commands run at a fixed rate.
+ */
+public final class CommandScheduler implements AutoCloseable {
+    public static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+    private final long tickNanos;
+    private final long startNanos;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final TimingWheel wheel = new TimingWheel();
+    private final Queue<ScheduledCommand> additions = new ConcurrentLinkedQueue<>();
+    private final Thread ticker;
+    private volatile BiConsumer<ScheduledCommand, Exception> errorHandler =
+            (command, e) -> System.out.println("Scheduled command failed: " + command.getCommand().getName() + ": " + e);
+    private volatile boolean closed;
+
+    /**
+     * Creates a scheduler with the default tick of 10 milliseconds, executing the commands on a fixed pool with one thread per processor.
+     */
+    public CommandScheduler() {
+        this(DEFAULT_TICK, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    /**
+     * Creates a scheduler with the given tick, executing the commands on the given executor.
+     * The executor is not shut down when the scheduler is closed.
+     *
+     * @param tick     The duration of a tick, which is the resolution of the delays and periods.
+     * @param executor The executor to run the due commands on.
+     */
+    public CommandScheduler(Duration tick, ExecutorService executor) {
+        this(tick, executor, false);
+    }
+
+    private CommandScheduler(Duration tick, ExecutorService executor, boolean ownsExecutor) {
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("Tick must be positive: " + tick);
+        }
+        this.tickNanos = tick.toNanos();
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.startNanos = System.nanoTime();
+        this.ticker = Thread.ofPlatform().name("command-scheduler").daemon().start(this::tickLoop);
+    }
+
+    /**
+     * Sets the handler of the exceptions thrown by scheduled commands. A periodic command keeps running after an exception.
+     *
+     * @param errorHandler The handler receiving the scheduled command and the exception.
+     */
+    public void setErrorHandler(BiConsumer<ScheduledCommand, Exception> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Parses the command line with the given parser and schedules it to run once after the delay.
+     * The parser must not have prepared commands pending, and it is not used again by the scheduler.
+     *
+     * @param parser The parser to prepare the line with.
+     * @param line   The command line.
+     * @param delay  The delay before the run.
+     * @return The scheduled command.
+     * @throws Exception If an error occurs while preparing the command line.
+     */
+    public ScheduledCommand schedule(CommandParser parser, String line, Duration delay) throws Exception {
+        return schedule(prepare(parser, line), delay);
+    }
+
+    /**
+     * Parses the command line with the given parser and schedules it to run periodically.
+     * The parser must not have prepared commands pending, and it is not used again by the scheduler.
+     *
+     * @param parser       The parser to prepare the line with.
+     * @param line         The command line.
+     * @param initialDelay The delay before the first run.
+     * @param period       The period between the starts of the runs.
+     * @return The scheduled command.
+     * @throws Exception If an error occurs while preparing the command line.
+     */
+    public ScheduledCommand scheduleAtFixedRate(CommandParser parser, String line, Duration initialDelay, Duration period) throws Exception {
+        return scheduleAtFixedRate(prepare(parser, line), initialDelay, period);
+    }
+
+    /**
+     * Schedules a prepared command to run once after the delay.
+     *
+     * @param command The command, e.g. returned by detach() of a parser.
+     * @param delay   The delay before the run.
+     * @return The scheduled command.
+     */
+    public ScheduledCommand schedule(Command command, Duration delay) {
+        return add(command, delay, 0);
+    }
+
+    /**
+     * Schedules a prepared command to run periodically.
+     *
+     * @param command      The command, e.g. returned by detach() of a parser.
+     * @param initialDelay The delay before the first run.
+     * @param period       The period between the starts of the runs.
+     * @return The scheduled command.
+     */
+    public ScheduledCommand scheduleAtFixedRate(Command command, Duration initialDelay, Duration period) {
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        return add(command, initialDelay, ticks(period.toNanos()));
+    }
+
+    /**
+     * Stops the scheduler. Runs that have already started are not interrupted.
+     * The executor is shut down if it was created by the scheduler.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private static Command prepare(CommandParser parser, String line) throws Exception {
+        parser.prepare(line);
+        if (!parser.isCommandComplete()) {
+            parser.clearRemainingCommand();
+            parser.detach();
+            throw new IllegalArgumentException("Incomplete command line: " + line);
+        }
+        Command command = parser.detach();
+        if (command == null) {
+            throw new IllegalArgumentException("Nothing to schedule: " + line);
+        }
+        return command;
+    }
+
+    private ScheduledCommand add(Command command, Duration delay, long periodTicks) {
+        if (command == null) {
+            throw new IllegalArgumentException("Command must not be null");
+        }
+        if (closed) {
+            throw new IllegalStateException("Scheduler is closed");
+        }
+        long elapsed = System.nanoTime() - startNanos + Math.max(0, delay.toNanos());
+        ScheduledCommand scheduled = new ScheduledCommand(command, ticks(elapsed), periodTicks);
+        additions.add(scheduled);
+        return scheduled;
+    }
+
+    private long ticks(long nanos) {
+        return Math.max(1, (nanos + tickNanos - 1) / tickNanos);
+    }
+
+    private void tickLoop() {
+        while (!closed) {
+            long wait = startNanos + (wheel.now() + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            ScheduledCommand added;
+            while ((added = additions.poll()) != null) {
+                if (added.deadline <= wheel.now()) {
+                    added.deadline = wheel.now() + 1;
+                }
+                wheel.add(added);
+            }
+            wheel.advance(this::run);
+        }
+    }
+
+    private void run(ScheduledCommand scheduled) {
+        if (scheduled.isPeriodic()) {
+            scheduled.deadline += scheduled.periodTicks;
+            wheel.add(scheduled);
+        }
+        if (!scheduled.running.compareAndSet(false, true)) {
+            scheduled.countSkipped();
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    scheduled.getCommand().execute();
+                } catch (Exception e) {
+                    errorHandler.accept(scheduled, e);
+                } finally {
+                    scheduled.running.set(false);
+                }
+            });
+            scheduled.countRun();
+        } catch (RejectedExecutionException e) {
+            scheduled.running.set(false);
+            scheduled.countSkipped();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.jvcats.cli.schedule;
+
+import com.jvcats.cli.cmd.Command;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a command scheduled by a command scheduler.
+ * A periodic command is not run again while its previous run is still executing, the skipped run is counted instead.
+ */
+public final class ScheduledCommand {
+    private final Command command;
+    final long periodTicks;
+    // the tick at which the command is due, only accessed by the thread driving the timing wheel
+    long deadline;
+    ScheduledCommand next;
+    final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private volatile boolean cancelled;
+
+    ScheduledCommand(Command command, long deadline, long periodTicks) {
+        this.command = command;
+        this.deadline = deadline;
+        this.periodTicks = periodTicks;
+    }
+
+    /**
+     * Returns the scheduled command.
+     *
+     * @return the command.
+     */
+    public Command getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns whether the command is run periodically.
+     *
+     * @return true if the command is periodic, false if it runs once.
+     */
+    public boolean isPeriodic() {
+        return periodTicks > 0;
+    }
+
+    /**
+     * Cancels the command. A run that has already started is not interrupted.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns whether the command is cancelled.
+     *
+     * @return true if the command is cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the number of runs started.
+     *
+     * @return the number of runs.
+     */
+    public long getRunCount() {
+        return runs.get();
+    }
+
+    /**
+     * Returns the number of runs skipped because the previous run was still executing or the executor rejected the run.
+     *
+     * @return the number of skipped runs.
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    void countRun() {
+        runs.incrementAndGet();
+    }
+
+    void countSkipped() {
+        skipped.incrementAndGet();
+    }
+}
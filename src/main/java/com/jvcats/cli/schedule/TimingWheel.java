@@ -0,0 +1,83 @@
+package com.jvcats.cli.schedule;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel. Each level has 64 slots and a slot of a level spans all slots of the level below,
+ * so 4 levels cover 2^24 ticks. Adding a command and advancing a tick cost O(1); a command is moved down a level
+ * at most once per level before it is due. Commands due later than the wheel covers are kept in the top level and
+ * placed again when their slot is reached.
+ * <p>
+ * The wheel is not thread-safe, it is only accessed by the thread driving it.
+ */
+final class TimingWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long RANGE = 1L << (BITS * LEVELS);
+    private final ScheduledCommand[][] slots = new ScheduledCommand[LEVELS][SLOTS];
+    private long now;
+    private int size;
+
+    long now() {
+        return now;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds the command at its deadline, which must not be before the current tick.
+     */
+    void add(ScheduledCommand command) {
+        long delta = command.deadline - now;
+        long tick = delta < RANGE ? command.deadline : now + RANGE - 1;
+        int level = 0;
+        while (level < LEVELS - 1 && tick - now >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int index = (int) (tick >>> (BITS * level)) & MASK;
+        command.next = slots[level][index];
+        slots[level][index] = command;
+        size++;
+    }
+
+    /**
+     * Moves to the next tick and passes the commands due at it to the consumer. Cancelled commands are dropped.
+     */
+    void advance(Consumer<ScheduledCommand> due) {
+        now++;
+        int index = (int) now & MASK;
+        for (int level = 1; index == 0 && level < LEVELS; level++) {
+            index = (int) (now >>> (BITS * level)) & MASK;
+            ScheduledCommand command = take(level, index);
+            while (command != null) {
+                ScheduledCommand next = command.next;
+                if (!command.isCancelled()) {
+                    add(command);
+                }
+                command = next;
+            }
+        }
+        ScheduledCommand command = take(0, (int) now & MASK);
+        while (command != null) {
+            ScheduledCommand next = command.next;
+            command.next = null;
+            if (!command.isCancelled()) {
+                due.accept(command);
+            }
+            command = next;
+        }
+    }
+
+    private ScheduledCommand take(int level, int index) {
+        ScheduledCommand head = slots[level][index];
+        slots[level][index] = null;
+        for (ScheduledCommand command = head; command != null; command = command.next) {
+            size--;
+        }
+        return head;
+    }
+}
@@ -0,0 +1,129 @@
+package com.jvcats.cli.startup;
+
+import com.jvcats.cli.CommandConfig;
+import com.jvcats.cli.CommandParser;
+import com.jvcats.cli.ParserConfig;
+import com.jvcats.cli.cmd.Command;
+import com.jvcats.cli.tree.CPath;
+import com.jvcats.cli.tree.CommandTree;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class measures the time from the launch of the JVM to the first executed command task with a representative registry.
+ * It also has a training mode that goes through the parser, the command factory and the command tree,
+ * so that an AppCDS archive can be dumped from it, e.g.
+ * <pre>
+ * java -XX:ArchiveClassesAtExit=cli-tool.jsa -cp cli-tool.jar com.jvcats.cli.startup.StartupHarness --train
+ * java -XX:SharedArchiveFile=cli-tool.jsa -cp cli-tool.jar com.jvcats.cli.startup.StartupHarness
+ * </pre>
+ * The "appcds" build profile runs the training after packaging.
+ */
+public class StartupHarness {
+    private static final int MAIN_COMMANDS = 200;
+    private static final int OPTIONS_PER_COMMAND = 5;
+    private static final String FIRST_LINE = "cmd0 --opt0 a b; cmd1 -c { cmd2 --opt1 \"quoted arg\"; };";
+    private static volatile long firstTaskNanos;
+    // the options of a prioritized command run concurrently
+    private static final AtomicInteger executed = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        boolean training = args.length > 0 && args[0].equals("--train");
+        long launchToMain = Duration.between(launchTime(), Instant.now()).toNanos();
+        long mainNanos = System.nanoTime();
+        CommandParser parser = createParser();
+        parser.runCommand(FIRST_LINE);
+        long firstTask = firstTaskNanos - mainNanos;
+        if (training) {
+            train(parser);
+            System.out.println("Training finished, executed " + executed.get() + " tasks");
+            return;
+        }
+        System.out.printf("JVM launch to main: %.1f ms%n", launchToMain / 1e6);
+        System.out.printf("main to first command task: %.1f ms%n", firstTask / 1e6);
+        System.out.printf("JVM launch to first command task: %.1f ms%n", (launchToMain + firstTask) / 1e6);
+    }
+
+    private static Instant launchTime() {
+        // the process start time is known to the OS, so no management classes need to be loaded
+        return ProcessHandle.current().info().startInstant().orElseGet(Instant::now);
+    }
+
+    private static CommandParser createParser() {
+        CommandParser parser = new CommandParser(new ParserConfig() {
+            @Override
+            public String quotes() {
+                return "\"";
+            }
+
+            @Override
+            public char endOfStatement() {
+                return ';';
+            }
+
+            @Override
+            public String blockChars() {
+                return "{}";
+            }
+        });
+        CommandConfig prioritized = new CommandConfig() {
+            @Override
+            public boolean registerWithPriority() {
+                return true;
+            }
+
+            @Override
+            public int runningPolicy() {
+                return OPTIONS_PER_COMMAND;
+            }
+        };
+        for (int i = 0; i < MAIN_COMMANDS; i++) {
+            String main = "cmd" + i;
+            parser.register(main, i % 2 == 0 ? null : prioritized, StartupHarness::task);
+            for (int j = 0; j < OPTIONS_PER_COMMAND; j++) {
+                parser.register(main, StartupHarness::task, "opt" + j, String.valueOf((char) ('a' + j)));
+            }
+        }
+        return parser;
+    }
+
+    private static void task(List<String> args) {
+        if (firstTaskNanos == 0) {
+            firstTaskNanos = System.nanoTime();
+        }
+        executed.incrementAndGet();
+    }
+
+    private static void train(CommandParser parser) throws Exception {
+        List<String> script = new ArrayList<>();
+        for (int i = 0; i < MAIN_COMMANDS; i++) {
+            script.add("cmd" + i + " x --opt1 y -ab z { cmd" + (i + 1) % MAIN_COMMANDS + " --opt2 \"w v\"; };");
+        }
+        for (int round = 0; round < 3; round++) {
+            for (String line : script) {
+                parser.prepare(line);
+            }
+            CommandTree tree = parser.getCommandTree();
+            tree.transform((command, editor) -> {
+                if (command.getName().equals("cmd3")) {
+                    editor.prune(command);
+                    return false;
+                }
+                return true;
+            });
+            tree.get(tree.peek(), new CPath("cmd1"));
+            parser.execute();
+            parser.validate(script);
+            parser.prepareInParallel(script);
+            parser.execute();
+        }
+        Command command = parser.createCommand("cmd0");
+        command.addOption("opt0");
+        command.addArguments("opt0", "a");
+        command.execute();
+    }
+}
@@ -12,6 +12,7 @@ public abstract class AbstractCommand implements Command {
     protected Map<String, List<String>> options;
     protected List<Node> children = new ArrayList<>();
     protected Node parent;
+    protected RunCondition condition = RunCondition.ALWAYS;
 
     public AbstractCommand(String name, Map<String, List<String>> options) {
         this.name = name;
@@ -73,12 +74,28 @@ public abstract class AbstractCommand implements Command {
         throw new UnsupportedOperationException("Not implemented");
     }
 
+    @Override
+    public RunCondition getCondition() {
+        return condition;
+    }
+
+    @Override
+    public void setCondition(RunCondition condition) {
+        this.condition = condition;
+    }
+
     @Override
     public void addChild(Node node) {
         node.setParent(this);
         children.add(node);
     }
 
+    @Override
+    public void addChild(int index, Node node) {
+        node.setParent(this);
+        children.add(index, node);
+    }
+
     @Override
     public List<Node> removeAllChildren() {
         List<Node> children = this.children;
@@ -95,6 +112,24 @@ public abstract class AbstractCommand implements Command {
         node.setParent(null);
     }
 
+    @Override
+    public void removeChildren(Collection<? extends Node> nodes) {
+        Set<Node> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(nodes);
+        children.removeIf(child -> {
+            if (removed.contains(child)) {
+                child.setParent(null);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void sortChildren(Comparator<? super Node> comparator) {
+        children.sort(comparator);
+    }
+
     @Override
     public List<Node> getChildren() {
         return children;
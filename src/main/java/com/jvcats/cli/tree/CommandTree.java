@@ -16,14 +16,16 @@ public class CommandTree {
      *
      * @param parent the parent command to add the command to
      * @param command the command to add
+     * @return the command as it is stored in the tree
      */
-    public void add(Command parent, Command command) {
+    public Command add(Command parent, Command command) {
         if (head == null) {
             head = command;
         } else {
             parent.addChild(command);
         }
         size += command.descendantCount() + 1;
+        return command;
     }
 
     /**
@@ -35,7 +37,6 @@ public class CommandTree {
         if (command == head) {
             clear();
         } else {
-            command.setParent(null);
             command.getParent().removeChild(command);
             size -= (command.descendantCount() + 1);
         }
@@ -52,6 +53,26 @@ public class CommandTree {
         return command.removeAllChildren();
     }
 
+    /**
+     * Visits the commands of the tree in pre-order and applies the structural changes recorded by the visitor after the traversal.
+     * This is cheaper than a sequence of get() and remove() calls as the tree is walked only once and the children lists are changed once per parent.
+     *
+     * @param visitor the visitor to call for each command
+     */
+    public void transform(CommandVisitor visitor) {
+        Command head = peek();
+        if (head == null) {
+            return;
+        }
+        TreeEditor editor = new TreeEditor();
+        head.walk(node -> node instanceof Command command && visitor.visit(command, editor) && !editor.isPruned(command));
+        editor.apply(this);
+    }
+
+    void adjustSize(int delta) {
+        size += delta;
+    }
+
     /**
      * Clears the tree.
      */
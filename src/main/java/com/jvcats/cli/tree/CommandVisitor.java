@@ -0,0 +1,21 @@
+package com.jvcats.cli.tree;
+
+import com.jvcats.cli.cmd.Command;
+
+/**
+ * This interface is used to visit and rewrite the commands of a command tree in a single traversal.
+ * Names, options and arguments can be changed on the visited command directly,
+ * while structural changes should be recorded with the editor and will be applied after the traversal.
+ */
+@FunctionalInterface
+public interface CommandVisitor {
+
+    /**
+     * Visits a command.
+     *
+     * @param command the command to visit.
+     * @param editor  the editor to record structural changes with.
+     * @return whether the children of the command should be visited.
+     */
+    boolean visit(Command command, TreeEditor editor);
+}
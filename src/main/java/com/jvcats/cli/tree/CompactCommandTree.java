@@ -0,0 +1,480 @@
+package com.jvcats.cli.tree;
+
+import com.jvcats.cli.ParserConfig;
+import com.jvcats.cli.cmd.Command;
+import com.jvcats.cli.cmd.MainCommandAdapter;
+import com.jvcats.cli.cmd.RunCondition;
+
+import java.util.*;
+
+/**
+ * This class is a command tree that stores its statements in primitive arrays instead of command objects.
+ * Each statement is a row with its parent, its first and last child, its next sibling, the id of its name and its first option,
+ * each option is a row with the id of its name and its first argument, and the characters of all arguments share one buffer.
+ * This takes a fraction of the memory of a tree of BaseCommand objects, so very large trees can be prepared.
+ * <p>
+ * The commands returned by the tree are flyweight views of the rows, created when they are asked for, and two views of the same row are equal.
+ * The name, options and arguments of a statement are read-only, only its run condition and the structure of the tree can be changed.
+ * A command added to the tree, also as the child of a view, is copied with its block, unless it is already a view of this tree, which is moved.
+ * A statement stores each option once, so a command with duplicate options is rejected before any of it is copied.
+ * A statement is created by the command factory each time it is executed, so executing a compact tree is slower than executing a tree of commands.
+ * Removed statements keep their rows until the tree is cleared, and views that were taken before stay valid after it is cleared.
+ */
+public class CompactCommandTree extends CommandTree {
+    private static final RunCondition[] CONDITIONS = RunCondition.values();
+    private static final int INITIAL_CAPACITY = 16;
+    private final CommandFactory commandFactory;
+    private final MainCommandAdapter mainCommandAdapter;
+    private final ParserConfig parserConfig;
+    private Rows rows = new Rows();
+
+    /**
+     * Creates an empty compact command tree.
+     *
+     * @param commandFactory     the factory to create the statements with when they are executed
+     * @param mainCommandAdapter the main commands of the statements
+     * @param parserConfig       the parser configuration passed to the factory
+     */
+    public CompactCommandTree(CommandFactory commandFactory, MainCommandAdapter mainCommandAdapter, ParserConfig parserConfig) {
+        this.commandFactory = commandFactory;
+        this.mainCommandAdapter = mainCommandAdapter;
+        this.parserConfig = parserConfig;
+    }
+
+    /**
+     * Copies a command with its block into the tree.
+     *
+     * @param parent  the parent command to add the command to, which must be a view of this tree unless the tree is empty
+     * @param command the command to copy
+     * @return the view of the copy
+     */
+    @Override
+    public Command add(Command parent, Command command) {
+        Command added;
+        if (rows.count == 0) {
+            added = rows.view(rows.copy(-1, command));
+        } else {
+            added = rows.view(rows.copy(rows.indexOf(parent), command));
+        }
+        adjustSize(added.descendantCount() + 1);
+        return added;
+    }
+
+    @Override
+    public void remove(Command command) {
+        int index = rows.indexOf(command);
+        if (index == 0) {
+            clear();
+        } else {
+            adjustSize(-(command.descendantCount() + 1));
+            rows.unlink(index);
+        }
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        // the rows are replaced instead of reused, as detached views may still read them
+        rows = new Rows();
+    }
+
+    @Override
+    public Command peek() {
+        return rows.count == 0 ? null : rows.view(0);
+    }
+
+    private final class Rows {
+        // the statements, the options of statement i are firstOptions[i] to firstOptions[i + 1] or optionCount
+        private int count;
+        private int[] parents = new int[INITIAL_CAPACITY];
+        private int[] firstChildren = new int[INITIAL_CAPACITY];
+        private int[] lastChildren = new int[INITIAL_CAPACITY];
+        private int[] nextSiblings = new int[INITIAL_CAPACITY];
+        private int[] names = new int[INITIAL_CAPACITY];
+        private int[] firstOptions = new int[INITIAL_CAPACITY];
+        private byte[] conditions = new byte[INITIAL_CAPACITY];
+        // the options, the arguments of option j are firstArguments[j] to firstArguments[j + 1] or argumentCount
+        private int optionCount;
+        private int[] optionNames = new int[INITIAL_CAPACITY];
+        private int[] firstArguments = new int[INITIAL_CAPACITY];
+        // the arguments, the characters of argument k are argumentStarts[k] to argumentStarts[k + 1] or charCount
+        private int argumentCount;
+        private int[] argumentStarts = new int[INITIAL_CAPACITY];
+        private int charCount;
+        private char[] chars = new char[INITIAL_CAPACITY];
+        // the names of the commands and options, which are only a few
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIds = new HashMap<>();
+
+        int copy(int parent, Command command) {
+            checkOptions(command);
+            return copyRows(parent, command);
+        }
+
+        private int copyRows(int parent, Command command) {
+            int index = append(parent, command);
+            for (Node child : command.getChildren()) {
+                copyRows(index, (Command) child);
+            }
+            return index;
+        }
+
+        // the arguments of a duplicate option cannot be told apart through the Command methods, so they could not be copied
+        private static void checkOptions(Command command) {
+            Set<String> options = new HashSet<>();
+            for (String option : command.getOptions()) {
+                if (!options.add(option)) {
+                    throw new IllegalArgumentException("Duplicate option in a statement of a compact command tree: " + option);
+                }
+            }
+            for (Node child : command.getChildren()) {
+                checkOptions((Command) child);
+            }
+        }
+
+        private int append(int parent, Command command) {
+            if (count == parents.length) {
+                int capacity = count * 2;
+                parents = Arrays.copyOf(parents, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                lastChildren = Arrays.copyOf(lastChildren, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                names = Arrays.copyOf(names, capacity);
+                firstOptions = Arrays.copyOf(firstOptions, capacity);
+                conditions = Arrays.copyOf(conditions, capacity);
+            }
+            int index = count++;
+            parents[index] = -1;
+            firstChildren[index] = -1;
+            lastChildren[index] = -1;
+            nextSiblings[index] = -1;
+            names[index] = idOf(command.getName());
+            firstOptions[index] = optionCount;
+            conditions[index] = (byte) command.getCondition().ordinal();
+            for (String option : command.getOptions()) {
+                appendOption(option, command.getArguments(option));
+            }
+            if (parent >= 0) {
+                link(parent, index);
+            }
+            return index;
+        }
+
+        private void appendOption(String option, List<String> args) {
+            if (optionCount == optionNames.length) {
+                optionNames = Arrays.copyOf(optionNames, optionCount * 2);
+                firstArguments = Arrays.copyOf(firstArguments, optionCount * 2);
+            }
+            optionNames[optionCount] = idOf(option);
+            firstArguments[optionCount] = argumentCount;
+            optionCount++;
+            if (args == null) {
+                return;
+            }
+            for (String arg : args) {
+                if (argumentCount == argumentStarts.length) {
+                    argumentStarts = Arrays.copyOf(argumentStarts, argumentCount * 2);
+                }
+                if (charCount + arg.length() > chars.length) {
+                    chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + arg.length()));
+                }
+                argumentStarts[argumentCount++] = charCount;
+                arg.getChars(0, arg.length(), chars, charCount);
+                charCount += arg.length();
+            }
+        }
+
+        private int idOf(String string) {
+            Integer id = stringIds.get(string);
+            if (id == null) {
+                id = strings.size();
+                strings.add(string);
+                stringIds.put(string, id);
+            }
+            return id;
+        }
+
+        private void link(int parent, int child) {
+            parents[child] = parent;
+            nextSiblings[child] = -1;
+            if (lastChildren[parent] < 0) {
+                firstChildren[parent] = child;
+            } else {
+                nextSiblings[lastChildren[parent]] = child;
+            }
+            lastChildren[parent] = child;
+        }
+
+        void unlink(int index) {
+            int parent = parents[index];
+            if (parent < 0) {
+                return;
+            }
+            int previous = -1;
+            for (int child = firstChildren[parent]; child != index; child = nextSiblings[child]) {
+                previous = child;
+            }
+            if (previous < 0) {
+                firstChildren[parent] = nextSiblings[index];
+            } else {
+                nextSiblings[previous] = nextSiblings[index];
+            }
+            if (lastChildren[parent] == index) {
+                lastChildren[parent] = previous;
+            }
+            parents[index] = -1;
+            nextSiblings[index] = -1;
+        }
+
+        int indexOf(Node node) {
+            if (node instanceof View view && view.rows() == this) {
+                return view.index;
+            }
+            throw new IllegalArgumentException("Not a statement of this tree: " + node);
+        }
+
+        View view(int index) {
+            return new View(index);
+        }
+
+        private int optionEnd(int index) {
+            return index + 1 < count ? firstOptions[index + 1] : optionCount;
+        }
+
+        private List<String> arguments(int option) {
+            int end = option + 1 < optionCount ? firstArguments[option + 1] : argumentCount;
+            List<String> args = new ArrayList<>(end - firstArguments[option]);
+            for (int k = firstArguments[option]; k < end; k++) {
+                int charEnd = k + 1 < argumentCount ? argumentStarts[k + 1] : charCount;
+                args.add(new String(chars, argumentStarts[k], charEnd - argumentStarts[k]));
+            }
+            return args;
+        }
+
+        private final class View implements Command {
+            private final int index;
+
+            View(int index) {
+                this.index = index;
+            }
+
+            Rows rows() {
+                return Rows.this;
+            }
+
+            @Override
+            public String getName() {
+                return strings.get(names[index]);
+            }
+
+            @Override
+            public void setName(String name) {
+                throw readOnly();
+            }
+
+            @Override
+            public List<String> getOptions() {
+                List<String> result = new ArrayList<>();
+                for (int j = firstOptions[index]; j < optionEnd(index); j++) {
+                    result.add(strings.get(optionNames[j]));
+                }
+                return result;
+            }
+
+            @Override
+            public void addOption(String option) {
+                throw readOnly();
+            }
+
+            @Override
+            public void removeOption(String option) {
+                throw readOnly();
+            }
+
+            @Override
+            public void clearOptions() {
+                throw readOnly();
+            }
+
+            /**
+             * Returns the arguments of the given option as an unmodifiable list.
+             *
+             * @param option the option name, or null for the main option
+             * @return the arguments
+             */
+            @Override
+            public List<String> getArguments(String option) {
+                if (option == null) {
+                    option = mainCommandAdapter.get(getName()).getConfig().mainOptionName();
+                }
+                Integer id = stringIds.get(option);
+                for (int j = firstOptions[index]; id != null && j < optionEnd(index); j++) {
+                    if (optionNames[j] == id) {
+                        return Collections.unmodifiableList(arguments(j));
+                    }
+                }
+                throw new IllegalArgumentException("Undefined option name: " + option);
+            }
+
+            @Override
+            public void addArguments(String option, String... args) {
+                throw readOnly();
+            }
+
+            @Override
+            public void removeArguments(String option, String... args) {
+                throw readOnly();
+            }
+
+            @Override
+            public void clearArguments(String option) {
+                throw readOnly();
+            }
+
+            @Override
+            public void execute() throws Exception {
+                Map<String, List<String>> options = new LinkedHashMap<>();
+                for (int j = firstOptions[index]; j < optionEnd(index); j++) {
+                    options.put(strings.get(optionNames[j]), arguments(j));
+                }
+                Command command = commandFactory.createCommand(getName(), options, mainCommandAdapter, parserConfig);
+                // the views do not change their parent, so the block stays in the tree while the command runs it
+                for (int child = firstChildren[index]; child >= 0; child = nextSiblings[child]) {
+                    command.addChild(view(child));
+                }
+                command.execute();
+            }
+
+            @Override
+            public RunCondition getCondition() {
+                return CONDITIONS[conditions[index]];
+            }
+
+            @Override
+            public void setCondition(RunCondition condition) {
+                conditions[index] = (byte) condition.ordinal();
+            }
+
+            @Override
+            public void addChild(Node node) {
+                if (node instanceof View view && view.rows() == Rows.this) {
+                    unlink(view.index);
+                    link(index, view.index);
+                } else {
+                    copy(index, (Command) node);
+                }
+            }
+
+            @Override
+            public List<Node> removeAllChildren() {
+                List<Node> children = getChildren();
+                for (int child = firstChildren[index]; child >= 0; ) {
+                    int next = nextSiblings[child];
+                    parents[child] = -1;
+                    nextSiblings[child] = -1;
+                    child = next;
+                }
+                firstChildren[index] = -1;
+                lastChildren[index] = -1;
+                return children;
+            }
+
+            @Override
+            public void removeChild(Node node) {
+                int child = indexOf(node);
+                if (parents[child] == index) {
+                    unlink(child);
+                }
+            }
+
+            @Override
+            public void removeChildren(Collection<? extends Node> nodes) {
+                for (Node node : nodes) {
+                    removeChild(node);
+                }
+            }
+
+            @Override
+            public List<Node> getChildren() {
+                List<Node> children = new ArrayList<>();
+                for (int child = firstChildren[index]; child >= 0; child = nextSiblings[child]) {
+                    children.add(view(child));
+                }
+                return children;
+            }
+
+            @Override
+            public int descendantCount() {
+                int count = 0;
+                for (int child = firstChildren[index]; child >= 0; child = nextSiblings[child]) {
+                    count += view(child).descendantCount() + 1;
+                }
+                return count;
+            }
+
+            @Override
+            public void walk(NodeVisitor visitor) {
+                // walks the rows, so only the visited statements get a view
+                int[] stack = new int[INITIAL_CAPACITY];
+                int top = 0;
+                stack[top++] = index;
+                while (top > 0) {
+                    int current = stack[--top];
+                    if (!visitor.visit(view(current))) {
+                        continue;
+                    }
+                    int first = top;
+                    for (int child = firstChildren[current]; child >= 0; child = nextSiblings[child]) {
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top++] = child;
+                    }
+                    // the first child has to be on top
+                    for (int i = first, j = top - 1; i < j; i++, j--) {
+                        int swap = stack[i];
+                        stack[i] = stack[j];
+                        stack[j] = swap;
+                    }
+                }
+            }
+
+            /**
+             * Does nothing, the parent of a statement is changed by adding it to or removing it from a view of its parent.
+             *
+             * @param node the parent node.
+             */
+            @Override
+            public void setParent(Node node) {
+            }
+
+            @Override
+            public Node getParent() {
+                return parents[index] < 0 ? null : view(parents[index]);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof View view && view.rows() == Rows.this && view.index == index;
+            }
+
+            @Override
+            public int hashCode() {
+                return System.identityHashCode(Rows.this) * 31 + index;
+            }
+
+            @Override
+            public String toString() {
+                Map<String, List<String>> options = new LinkedHashMap<>();
+                for (int j = firstOptions[index]; j < optionEnd(index); j++) {
+                    options.put(strings.get(optionNames[j]), arguments(j));
+                }
+                return getName() + options;
+            }
+
+            private UnsupportedOperationException readOnly() {
+                return new UnsupportedOperationException("The statements of a compact command tree are read-only");
+            }
+        }
+    }
+}
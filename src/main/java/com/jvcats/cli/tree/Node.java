@@ -1,6 +1,6 @@
 package com.jvcats.cli.tree;
 
-import java.util.List;
+import java.util.*;
 
 public interface Node {
 
@@ -11,6 +11,20 @@ public interface Node {
      */
     void addChild(Node node);
 
+    /**
+     * Inserts a child node at the given position of the children.
+     *
+     * @param index the position to insert the child node at.
+     * @param node  the child node to add.
+     */
+    default void addChild(int index, Node node) {
+        List<Node> children = removeAllChildren();
+        children.add(index, node);
+        for (Node child : children) {
+            addChild(child);
+        }
+    }
+
     /**
      * Removes all children from this node and returns them as a list.
      *
@@ -25,6 +39,30 @@ public interface Node {
      */
     void removeChild(Node node);
 
+    /**
+     * Removes the given child nodes from this node in a single pass over the children.
+     *
+     * @param nodes the child nodes to remove.
+     */
+    default void removeChildren(Collection<? extends Node> nodes) {
+        for (Node node : nodes) {
+            removeChild(node);
+        }
+    }
+
+    /**
+     * Sorts the child nodes of this node with the given comparator. The sorting is stable.
+     *
+     * @param comparator the comparator to sort the child nodes with.
+     */
+    default void sortChildren(Comparator<? super Node> comparator) {
+        List<Node> children = removeAllChildren();
+        children.sort(comparator);
+        for (Node child : children) {
+            addChild(child);
+        }
+    }
+
     /**
      * Returns a list of all child nodes of this node.
      *
@@ -37,7 +75,7 @@ public interface Node {
      *
      * @return the number of descendants.
      */
-    default int descendantCount(){
+    default int descendantCount() {
         int count = 0;
         for (Node child : getChildren()) {
             count += child.descendantCount() + 1;
@@ -45,6 +83,26 @@ public interface Node {
         return count;
     }
 
+    /**
+     * Walks this node and its descendants in pre-order without recursion.
+     *
+     * @param visitor the visitor to call for each node, the children of a node are skipped if it returns false.
+     */
+    default void walk(NodeVisitor visitor) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (!visitor.visit(node)) {
+                continue;
+            }
+            List<Node> children = node.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+    }
+
     /**
      * Sets the parent of this node.
      *
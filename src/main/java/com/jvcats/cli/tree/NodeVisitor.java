@@ -0,0 +1,16 @@
+package com.jvcats.cli.tree;
+
+/**
+ * This interface is used to visit the nodes of a tree.
+ */
+@FunctionalInterface
+public interface NodeVisitor {
+
+    /**
+     * Visits a node.
+     *
+     * @param node the node to visit.
+     * @return whether the children of the node should be visited.
+     */
+    boolean visit(Node node);
+}
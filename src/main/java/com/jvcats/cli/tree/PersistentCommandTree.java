@@ -0,0 +1,576 @@
+package com.jvcats.cli.tree;
+
+import com.jvcats.cli.ParserConfig;
+import com.jvcats.cli.cmd.Command;
+import com.jvcats.cli.cmd.MainCommandAdapter;
+import com.jvcats.cli.cmd.RunCondition;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a command tree whose versions share their unchanged subtrees. Taking a snapshot with snapshot() does not copy anything,
+ * and a change of the tree or of its snapshot copies only the path from the changed command to the head, so the other one is not changed.
+ * The entries that are not shared with a snapshot yet are changed in place, so building a tree is as cheap as with a CommandTree.
+ * <p>
+ * The commands returned by the tree are views of its current version, created when they are asked for, and two views of the same command are equal.
+ * All changes through the Command and Node methods of a view are supported. The lists returned by getArguments() are unmodifiable, and a command
+ * added to the tree is copied with its block unless it is a view of a persistent tree, whose entry is shared.
+ * A statement stores each option once, so a command with duplicate options is rejected, and so is adding an option a view already has.
+ * A view of a command that was removed still returns what it had, but it cannot be changed anymore.
+ * A statement is created by the command factory each time it is executed, so executing the tree is slower than executing a tree of commands.
+ * A tree is not thread-safe, but a snapshot can be read and changed by another thread, once it is handed over safely.
+ */
+public class PersistentCommandTree extends CommandTree {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private final CommandFactory commandFactory;
+    private final MainCommandAdapter mainCommandAdapter;
+    private final ParserConfig parserConfig;
+    private Entry head;
+    // the entries owned by this token are not shared and are changed in place
+    private Object edit = new Object();
+    private int modCount;
+
+    /**
+     * Creates an empty persistent command tree.
+     *
+     * @param commandFactory     the factory to create the statements with when they are executed
+     * @param mainCommandAdapter the main commands of the statements
+     * @param parserConfig       the parser configuration passed to the factory
+     */
+    public PersistentCommandTree(CommandFactory commandFactory, MainCommandAdapter mainCommandAdapter, ParserConfig parserConfig) {
+        this.commandFactory = commandFactory;
+        this.mainCommandAdapter = mainCommandAdapter;
+        this.parserConfig = parserConfig;
+    }
+
+    /**
+     * Returns a tree with the current version of this tree, without copying it. Later changes of either tree are not visible in the other one.
+     *
+     * @return the snapshot
+     */
+    public PersistentCommandTree snapshot() {
+        PersistentCommandTree snapshot = new PersistentCommandTree(commandFactory, mainCommandAdapter, parserConfig);
+        snapshot.head = head;
+        // the entries are shared from now on, so both trees copy them before changing them
+        edit = new Object();
+        return snapshot;
+    }
+
+    /**
+     * Adds a command to the tree. The command is copied with its block unless it is a view of a persistent tree.
+     *
+     * @param parent  the parent command to add the command to, which must be a view of this tree unless the tree is empty
+     * @param command the command to add
+     * @return the view of the added command
+     */
+    @Override
+    public Command add(Command parent, Command command) {
+        if (head == null) {
+            head = entryOf(command);
+            modCount++;
+            return new View(new long[]{head.id}, head);
+        }
+        View view = viewOf(parent);
+        Entry entry = view.insert(-1, entryOf(command));
+        long[] ids = Arrays.copyOf(view.ids, view.ids.length + 1);
+        ids[view.ids.length] = entry.id;
+        return new View(ids, entry);
+    }
+
+    @Override
+    public void remove(Command command) {
+        View view = viewOf(command);
+        if (view.ids.length == 1) {
+            clear();
+        } else {
+            view.getParent().removeChild(view);
+        }
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        head = null;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return head == null ? 0 : head.descendantCount + 1;
+    }
+
+    @Override
+    public Command peek() {
+        return head == null ? null : new View(new long[]{head.id}, head);
+    }
+
+    private View viewOf(Node node) {
+        if (node instanceof View view && view.tree() == this) {
+            return view;
+        }
+        throw new IllegalArgumentException("Not a command of this tree: " + node);
+    }
+
+    private Entry entryOf(Node node) {
+        if (node instanceof View view) {
+            // the entry is shared from now on, also if it stays in this tree, so its tree must not change it in place anymore
+            view.tree().edit = new Object();
+            return view.entry();
+        }
+        Command command = (Command) node;
+        List<String> options = command.getOptions();
+        // the arguments of a duplicate option cannot be told apart through the Command methods, so they could not be copied
+        Set<String> unique = new HashSet<>();
+        for (String option : options) {
+            if (!unique.add(option)) {
+                throw new IllegalArgumentException("Duplicate option in a statement of a persistent command tree: " + option);
+            }
+        }
+        List<List<String>> arguments = new ArrayList<>(options.size());
+        for (String option : options) {
+            List<String> args = command.getArguments(option);
+            arguments.add(args == null ? List.of() : List.copyOf(args));
+        }
+        Entry entry = new Entry(NEXT_ID.incrementAndGet(), edit, command.getName(), command.getCondition(), List.copyOf(options), List.copyOf(arguments));
+        for (Node child : command.getChildren()) {
+            insert(entry, -1, entryOf(child));
+        }
+        return entry;
+    }
+
+    private Entry insert(Entry parent, int index, Entry child) {
+        // the views find a command by the ids of its ancestors, so the children of a command need different ids
+        if (parent.indexOf(child.id, -1) >= 0) {
+            child = child.copy(NEXT_ID.incrementAndGet(), edit);
+        }
+        parent.insert(index, child);
+        return child;
+    }
+
+    private static final class Entry {
+        private static final Entry[] NO_CHILDREN = new Entry[0];
+        final long id;
+        final Object owner;
+        String name;
+        RunCondition condition;
+        // both lists are immutable and replaced when they change, so copies of the entry can share them
+        List<String> options;
+        List<List<String>> arguments;
+        Entry[] children = NO_CHILDREN;
+        int childCount;
+        int descendantCount;
+
+        Entry(long id, Object owner, String name, RunCondition condition, List<String> options, List<List<String>> arguments) {
+            this.id = id;
+            this.owner = owner;
+            this.name = name;
+            this.condition = condition;
+            this.options = options;
+            this.arguments = arguments;
+        }
+
+        Entry copy(long id, Object owner) {
+            Entry copy = new Entry(id, owner, name, condition, options, arguments);
+            copy.children = Arrays.copyOf(children, childCount);
+            copy.childCount = childCount;
+            copy.descendantCount = descendantCount;
+            return copy;
+        }
+
+        void insert(int index, Entry child) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, Math.max(4, childCount * 2));
+            }
+            if (index < 0) {
+                index = childCount;
+            } else {
+                System.arraycopy(children, index, children, index + 1, childCount - index);
+            }
+            children[index] = child;
+            childCount++;
+            descendantCount += child.descendantCount + 1;
+        }
+
+        int indexOf(long id, int hint) {
+            if (hint >= 0 && hint < childCount && children[hint].id == id) {
+                return hint;
+            }
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].id == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int optionIndex(String option) {
+            int index = options.indexOf(option);
+            if (index < 0) {
+                throw new IllegalArgumentException("Undefined option name: " + option);
+            }
+            return index;
+        }
+    }
+
+    private record Resolved(int modCount, Entry[] path, int[] indices) {
+    }
+
+    private final class View implements Command {
+        // the ids of the entries from the head to this command
+        private final long[] ids;
+        private Entry entry;
+        private Resolved resolved;
+
+        View(long[] ids, Entry entry) {
+            this.ids = ids;
+            this.entry = entry;
+        }
+
+        PersistentCommandTree tree() {
+            return PersistentCommandTree.this;
+        }
+
+        /**
+         * Returns the entry of this command in the current version, or the last one it had if it was removed.
+         */
+        Entry entry() {
+            Entry[] path = path();
+            return path == null ? entry : path[path.length - 1];
+        }
+
+        private Entry[] path() {
+            Resolved current = resolved;
+            if (current != null && current.modCount() == modCount) {
+                return current.path();
+            }
+            Entry[] path = null;
+            int[] indices = new int[ids.length];
+            if (head != null && head.id == ids[0]) {
+                path = new Entry[ids.length];
+                path[0] = head;
+                for (int i = 1; i < ids.length; i++) {
+                    indices[i] = path[i - 1].indexOf(ids[i], current == null || current.indices() == null ? -1 : current.indices()[i]);
+                    if (indices[i] < 0) {
+                        path = null;
+                        break;
+                    }
+                    path[i] = path[i - 1].children[indices[i]];
+                }
+            }
+            if (path != null) {
+                entry = path[path.length - 1];
+            }
+            resolved = new Resolved(modCount, path, path == null ? null : indices);
+            return path;
+        }
+
+        /**
+         * Returns the path to this command with entries that can be changed in place, copying the shared ones.
+         */
+        private Entry[] editablePath() {
+            Entry[] path = path();
+            if (path == null) {
+                throw new IllegalStateException("The command is not in the tree anymore: " + entry.name);
+            }
+            int[] indices = resolved.indices();
+            if (path[0].owner != edit) {
+                head = path[0] = path[0].copy(path[0].id, edit);
+            }
+            for (int i = 1; i < path.length; i++) {
+                if (path[i].owner != edit) {
+                    path[i] = path[i].copy(path[i].id, edit);
+                    path[i - 1].children[indices[i]] = path[i];
+                }
+            }
+            modCount++;
+            entry = path[path.length - 1];
+            resolved = new Resolved(modCount, path, indices);
+            return path;
+        }
+
+        private View child(Entry[] path, int index) {
+            Entry child = path[path.length - 1].children[index];
+            long[] childIds = Arrays.copyOf(ids, ids.length + 1);
+            childIds[ids.length] = child.id;
+            View view = new View(childIds, child);
+            Entry[] childPath = Arrays.copyOf(path, path.length + 1);
+            childPath[path.length] = child;
+            int[] indices = new int[childIds.length];
+            if (resolved.indices() != null) {
+                System.arraycopy(resolved.indices(), 0, indices, 0, ids.length);
+            }
+            indices[ids.length] = index;
+            view.resolved = new Resolved(modCount, childPath, indices);
+            return view;
+        }
+
+        Entry insert(int index, Entry child) {
+            Entry[] path = editablePath();
+            Entry inserted = PersistentCommandTree.this.insert(path[path.length - 1], index, child);
+            for (int i = 0; i < path.length - 1; i++) {
+                path[i].descendantCount += inserted.descendantCount + 1;
+            }
+            return inserted;
+        }
+
+        private void removeAt(Entry[] path, int index) {
+            Entry parent = path[path.length - 1];
+            int removed = parent.children[index].descendantCount + 1;
+            System.arraycopy(parent.children, index + 1, parent.children, index, parent.childCount - index - 1);
+            parent.children[--parent.childCount] = null;
+            for (Entry entry : path) {
+                entry.descendantCount -= removed;
+            }
+        }
+
+        @Override
+        public String getName() {
+            return entry().name;
+        }
+
+        @Override
+        public void setName(String name) {
+            if (!mainCommandAdapter.containsKey(name)) {
+                throw new IllegalArgumentException("Undefined command name: " + name);
+            }
+            Entry[] path = editablePath();
+            path[path.length - 1].name = name;
+        }
+
+        @Override
+        public List<String> getOptions() {
+            return new ArrayList<>(entry().options);
+        }
+
+        @Override
+        public void addOption(String option) {
+            if (option == null) {
+                option = mainCommandAdapter.get(getName()).getConfig().mainOptionName();
+            }
+            // throws if the option is not registered
+            mainCommandAdapter.get(getName()).getOptions().get(option);
+            if (entry().options.contains(option)) {
+                throw new IllegalArgumentException("Duplicate option in a statement of a persistent command tree: " + option);
+            }
+            Entry edited = editablePath()[ids.length - 1];
+            List<String> options = new ArrayList<>(edited.options);
+            List<List<String>> arguments = new ArrayList<>(edited.arguments);
+            options.add(option);
+            arguments.add(List.of());
+            edited.options = List.copyOf(options);
+            edited.arguments = List.copyOf(arguments);
+        }
+
+        @Override
+        public void removeOption(String option) {
+            int index = entry().optionIndex(mainOptionIfNull(option));
+            Entry edited = editablePath()[ids.length - 1];
+            List<String> options = new ArrayList<>(edited.options);
+            List<List<String>> arguments = new ArrayList<>(edited.arguments);
+            options.remove(index);
+            arguments.remove(index);
+            edited.options = List.copyOf(options);
+            edited.arguments = List.copyOf(arguments);
+        }
+
+        @Override
+        public void clearOptions() {
+            Entry edited = editablePath()[ids.length - 1];
+            edited.options = List.of();
+            edited.arguments = List.of();
+        }
+
+        @Override
+        public List<String> getArguments(String option) {
+            Entry current = entry();
+            return current.arguments.get(current.optionIndex(mainOptionIfNull(option)));
+        }
+
+        @Override
+        public void addArguments(String option, String... args) {
+            List<String> changed = new ArrayList<>(getArguments(option));
+            changed.addAll(List.of(args));
+            setArguments(option, changed);
+        }
+
+        @Override
+        public void removeArguments(String option, String... args) {
+            List<String> changed = new ArrayList<>(getArguments(option));
+            changed.removeAll(List.of(args));
+            setArguments(option, changed);
+        }
+
+        @Override
+        public void clearArguments(String option) {
+            setArguments(option, List.of());
+        }
+
+        private void setArguments(String option, List<String> args) {
+            int index = entry().optionIndex(mainOptionIfNull(option));
+            Entry edited = editablePath()[ids.length - 1];
+            List<List<String>> arguments = new ArrayList<>(edited.arguments);
+            arguments.set(index, List.copyOf(args));
+            edited.arguments = List.copyOf(arguments);
+        }
+
+        private String mainOptionIfNull(String option) {
+            return option == null ? mainCommandAdapter.get(getName()).getConfig().mainOptionName() : option;
+        }
+
+        @Override
+        public void execute() throws Exception {
+            Entry current = entry();
+            Map<String, List<String>> options = new LinkedHashMap<>();
+            for (int i = 0; i < current.options.size(); i++) {
+                options.put(current.options.get(i), new ArrayList<>(current.arguments.get(i)));
+            }
+            Command command = commandFactory.createCommand(current.name, options, mainCommandAdapter, parserConfig);
+            // the views do not change their parent, so the block stays in the tree while the command runs it
+            for (Node child : getChildren()) {
+                command.addChild(child);
+            }
+            command.execute();
+        }
+
+        @Override
+        public RunCondition getCondition() {
+            return entry().condition;
+        }
+
+        @Override
+        public void setCondition(RunCondition condition) {
+            Entry[] path = editablePath();
+            path[path.length - 1].condition = condition;
+        }
+
+        @Override
+        public void addChild(Node node) {
+            insert(-1, entryOf(node));
+        }
+
+        @Override
+        public void addChild(int index, Node node) {
+            Entry child = entryOf(node);
+            if (index < 0 || index > entry().childCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + entry().childCount);
+            }
+            insert(index, child);
+        }
+
+        @Override
+        public List<Node> removeAllChildren() {
+            List<Node> children = getChildren();
+            Entry[] path = editablePath();
+            Entry edited = path[path.length - 1];
+            for (int i = 0; i < path.length - 1; i++) {
+                path[i].descendantCount -= edited.descendantCount;
+            }
+            edited.children = Entry.NO_CHILDREN;
+            edited.childCount = 0;
+            edited.descendantCount = 0;
+            return children;
+        }
+
+        @Override
+        public void removeChild(Node node) {
+            removeChildren(List.of(node));
+        }
+
+        @Override
+        public void removeChildren(Collection<? extends Node> nodes) {
+            Set<Long> removed = new HashSet<>();
+            for (Node node : nodes) {
+                View view = viewOf(node);
+                removed.add(view.ids[view.ids.length - 1]);
+            }
+            Entry current = entry();
+            boolean found = false;
+            for (int i = 0; i < current.childCount && !found; i++) {
+                found = removed.contains(current.children[i].id);
+            }
+            if (!found) {
+                return;
+            }
+            Entry[] path = editablePath();
+            Entry edited = path[path.length - 1];
+            for (int i = edited.childCount - 1; i >= 0; i--) {
+                if (removed.contains(edited.children[i].id)) {
+                    removeAt(path, i);
+                }
+            }
+        }
+
+        @Override
+        public void sortChildren(Comparator<? super Node> comparator) {
+            List<Node> children = getChildren();
+            children.sort(comparator);
+            Entry[] path = editablePath();
+            Entry edited = path[path.length - 1];
+            for (int i = 0; i < children.size(); i++) {
+                edited.children[i] = ((View) children.get(i)).entry;
+            }
+        }
+
+        @Override
+        public List<Node> getChildren() {
+            Entry[] path = path();
+            if (path == null) {
+                // a removed command keeps its block, but the views of it cannot be resolved anymore
+                List<Node> children = new ArrayList<>(entry.childCount);
+                for (int i = 0; i < entry.childCount; i++) {
+                    children.add(new View(new long[]{entry.children[i].id}, entry.children[i]));
+                }
+                return children;
+            }
+            Entry current = path[path.length - 1];
+            List<Node> children = new ArrayList<>(current.childCount);
+            for (int i = 0; i < current.childCount; i++) {
+                children.add(child(path, i));
+            }
+            return children;
+        }
+
+        @Override
+        public int descendantCount() {
+            return entry().descendantCount;
+        }
+
+        /**
+         * Does nothing, the parent of a command is changed by adding it to or removing it from a view of its parent.
+         *
+         * @param node the parent node.
+         */
+        @Override
+        public void setParent(Node node) {
+        }
+
+        @Override
+        public Node getParent() {
+            if (ids.length == 1 || path() == null) {
+                return null;
+            }
+            return new View(Arrays.copyOf(ids, ids.length - 1), resolved.path()[ids.length - 2]);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof View view && view.tree() == tree() && view.ids[view.ids.length - 1] == ids[ids.length - 1];
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(tree()) * 31 + Long.hashCode(ids[ids.length - 1]);
+        }
+
+        @Override
+        public String toString() {
+            Entry current = entry();
+            Map<String, List<String>> options = new LinkedHashMap<>();
+            for (int i = 0; i < current.options.size(); i++) {
+                options.put(current.options.get(i), current.arguments.get(i));
+            }
+            return current.name + options;
+        }
+    }
+}
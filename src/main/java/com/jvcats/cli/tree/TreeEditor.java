@@ -0,0 +1,160 @@
+package com.jvcats.cli.tree;
+
+import com.jvcats.cli.cmd.Command;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * This class records the structural changes of a command tree during a traversal and applies them in one batch.
+ * The pruned commands are removed first, then the injected commands are added and finally the children are reordered.
+ * One should call transform() from CommandTree instead of creating an editor directly.
+ */
+public class TreeEditor {
+    // the commands are compared with equals(), as a compact tree returns a new view each time a command is visited
+    private final Set<Node> pruned = new HashSet<>();
+    private final List<Injection> injections = new ArrayList<>();
+    private final Map<Node, Comparator<? super Node>> reorders = new HashMap<>();
+
+    private record Injection(Command parent, int index, Command command) {
+    }
+
+    /**
+     * Renames the given command immediately.
+     *
+     * @param command the command to rename
+     * @param name    the new name
+     */
+    public void rename(Command command, String name) {
+        command.setName(name);
+    }
+
+    /**
+     * Replaces every argument of the given command immediately.
+     *
+     * @param command  the command to change
+     * @param operator the function to compute the new argument from the old one
+     */
+    public void substituteArguments(Command command, UnaryOperator<String> operator) {
+        for (String option : command.getOptions()) {
+            List<String> args = command.getArguments(option);
+            if (args != null) {
+                // the arguments are set again instead of replaced in the list, which may be unmodifiable
+                List<String> substituted = new ArrayList<>(args);
+                substituted.replaceAll(operator);
+                command.clearArguments(option);
+                command.addArguments(option, substituted.toArray(new String[0]));
+            }
+        }
+    }
+
+    /**
+     * Removes the given command and its descendants from the tree after the traversal.
+     * The descendants of a pruned command will not be visited.
+     *
+     * @param command the command to remove
+     */
+    public void prune(Command command) {
+        pruned.add(command);
+    }
+
+    /**
+     * Appends a command to the children of the given parent after the traversal.
+     * Injected commands will not be visited.
+     *
+     * @param parent  the parent command
+     * @param command the command to add
+     */
+    public void inject(Command parent, Command command) {
+        inject(parent, -1, command);
+    }
+
+    /**
+     * Inserts a command at the given position of the children of the given parent after the traversal.
+     * The position is taken from the children after the pruned commands have been removed.
+     * Injected commands will not be visited.
+     *
+     * @param parent  the parent command
+     * @param index   the position to insert the command at
+     * @param command the command to add
+     */
+    public void inject(Command parent, int index, Command command) {
+        injections.add(new Injection(parent, index, command));
+    }
+
+    /**
+     * Sorts the children of the given parent after the traversal. Only the last comparator recorded for a parent is used.
+     *
+     * @param parent     the parent command
+     * @param comparator the comparator to sort the children with
+     */
+    public void reorder(Command parent, Comparator<? super Node> comparator) {
+        reorders.put(parent, comparator);
+    }
+
+    /**
+     * Returns whether the given command has been pruned.
+     *
+     * @param command the command to check
+     * @return true if the command has been pruned, false otherwise
+     */
+    public boolean isPruned(Node command) {
+        return pruned.contains(command);
+    }
+
+    /**
+     * Applies the recorded changes to the tree.
+     *
+     * @param tree the tree to change
+     */
+    void apply(CommandTree tree) {
+        if (pruned.contains(tree.peek())) {
+            tree.clear();
+            return;
+        }
+        // the targets have to be checked before the pruned commands are detached
+        List<Injection> validInjections = new ArrayList<>(injections.size());
+        for (Injection injection : injections) {
+            if (!isInPrunedSubtree(injection.parent())) {
+                validInjections.add(injection);
+            }
+        }
+        Map<Node, List<Node>> prunedByParent = new HashMap<>();
+        for (Node node : pruned) {
+            if (node.getParent() != null && !isInPrunedSubtree(node.getParent())) {
+                prunedByParent.computeIfAbsent(node.getParent(), k -> new ArrayList<>()).add(node);
+            }
+        }
+        int removed = 0;
+        for (Map.Entry<Node, List<Node>> entry : prunedByParent.entrySet()) {
+            for (Node node : entry.getValue()) {
+                removed += node.descendantCount() + 1;
+            }
+            entry.getKey().removeChildren(entry.getValue());
+        }
+        int added = 0;
+        for (Injection injection : validInjections) {
+            if (injection.index() < 0) {
+                injection.parent().addChild(injection.command());
+            } else {
+                injection.parent().addChild(injection.index(), injection.command());
+            }
+            added += injection.command().descendantCount() + 1;
+        }
+        for (Map.Entry<Node, Comparator<? super Node>> entry : reorders.entrySet()) {
+            if (!isInPrunedSubtree(entry.getKey())) {
+                entry.getKey().sortChildren(entry.getValue());
+            }
+        }
+        tree.adjustSize(added - removed);
+    }
+
+    private boolean isInPrunedSubtree(Node node) {
+        for (Node current = node; current != null; current = current.getParent()) {
+            if (pruned.contains(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
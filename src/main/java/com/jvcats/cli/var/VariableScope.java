@@ -0,0 +1,141 @@
+package com.jvcats.cli.var;
+
+import com.jvcats.cli.CommandTask;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is the block scope of a running command. A variable set by a task is visible to the later tasks of its command
+ * and to the block of the command, and it is forgotten when the command ends. A task can set a variable for the rest of the block
+ * it is in by setting it in the parent scope, e.g. for the statements after it on the top level of a script.
+ * A variable that is not set in a scope or its parents is looked up in the variable source of the parser.
+ * <p>
+ * A task can get the scope of its command with current(), also when the options of the command run concurrently.
+ */
+public final class VariableScope implements AutoCloseable {
+    private static final ThreadLocal<VariableScope> CURRENT = new ThreadLocal<>();
+    private final Variables variables;
+    private final VariableScope parent;
+    private final VariableScope previous;
+    private Map<String, String> values;
+
+    private VariableScope(Variables variables, VariableScope parent, VariableScope previous) {
+        this.variables = variables;
+        this.parent = parent;
+        this.previous = previous;
+    }
+
+    /**
+     * Opens a scope for a command on the current thread, inside the scope of the command that is running on it.
+     * The scope has to be closed on the same thread when the command ends.
+     *
+     * @param variables The variables of the parser.
+     * @return The scope.
+     */
+    static VariableScope open(Variables variables) {
+        VariableScope current = CURRENT.get();
+        VariableScope scope = new VariableScope(variables, current, current);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * Returns the scope of the command that is running on the current thread.
+     *
+     * @return The scope, or null if no command with variable references is running.
+     */
+    public static VariableScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns the scope of the command whose block contains this command.
+     *
+     * @return The parent scope, or null if this is the scope of the head.
+     */
+    public VariableScope parent() {
+        return parent;
+    }
+
+    /**
+     * Sets a variable in this scope.
+     *
+     * @param name  The name of the variable.
+     * @param value The value.
+     */
+    public synchronized void set(String name, String value) {
+        if (values == null) {
+            values = new HashMap<>();
+        }
+        values.put(name, value);
+    }
+
+    /**
+     * Returns the value of a variable from this scope, its parents or the variable source, in that order.
+     *
+     * @param name The name of the variable.
+     * @return The value, or null if the variable is not defined.
+     */
+    public String get(String name) {
+        for (VariableScope scope = this; scope != null; scope = scope.parent) {
+            String value = scope.localValue(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        VariableSource source = variables.getSource();
+        return source == null ? null : source.get(name);
+    }
+
+    /**
+     * Expands the references in the given argument with the variables of this scope.
+     *
+     * @param argument The argument as it was parsed.
+     * @return The expanded argument.
+     * @throws IllegalArgumentException If a referenced variable is not defined.
+     */
+    public String expand(String argument) {
+        return variables.expand(argument, this);
+    }
+
+    /**
+     * Returns the names of the variables referenced in the given argument.
+     *
+     * @param argument The argument as it was parsed.
+     * @return The names in the order they are referenced, which may repeat.
+     */
+    public List<String> references(String argument) {
+        return variables.references(argument);
+    }
+
+    private synchronized String localValue(String name) {
+        return values == null ? null : values.get(name);
+    }
+
+    /**
+     * Runs a task of the command of this scope on the current thread, with the references in its arguments expanded when the task reads them.
+     *
+     * @param task The task.
+     * @param args The arguments as they were parsed.
+     * @throws Exception If the task fails.
+     */
+    public void run(CommandTask task, List<String> args) throws Exception {
+        VariableScope previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.run(variables.expand(args, this));
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Closes the scope and restores the scope that was current when it was opened.
+     */
+    @Override
+    public void close() {
+        CURRENT.set(previous);
+    }
+}
@@ -0,0 +1,38 @@
+package com.jvcats.cli.var;
+
+import java.util.Map;
+
+/**
+ * This interface provides the values of the variables that are not set in the block scopes of the running commands, e.g. environment variables.
+ * It can be called by several threads at the same time.
+ */
+@FunctionalInterface
+public interface VariableSource {
+
+    /**
+     * Returns the value of a variable.
+     *
+     * @param name The name of the variable.
+     * @return The value, or null if the variable is not defined.
+     */
+    String get(String name);
+
+    /**
+     * Returns a source of the environment variables of the process.
+     *
+     * @return The source.
+     */
+    static VariableSource environment() {
+        return System::getenv;
+    }
+
+    /**
+     * Returns a source of the entries of the given map. Later changes of the map are visible to the source.
+     *
+     * @param values The values by variable name.
+     * @return The source.
+     */
+    static VariableSource of(Map<String, String> values) {
+        return values::get;
+    }
+}
@@ -0,0 +1,172 @@
+package com.jvcats.cli.var;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class expands the references to variables in the form ${name} in the arguments of a parser. The arguments are split into
+ * literal and variable segments once, and the segments are cached, so an argument is not scanned again each time it is expanded.
+ * An argument is expanded when a task reads it, with the values of the block scope of its command at that time.
+ * $${ stands for a literal ${, and a reference to a variable that is not defined throws an IllegalArgumentException when it is read.
+ */
+public final class Variables {
+    private static final int MAX_TEMPLATES = 4096;
+    private final Map<String, Template> templates = new ConcurrentHashMap<>();
+    private volatile VariableSource source;
+
+    // literals has one more element than names, the expansion is literals[0] + names[0] + literals[1] + ...
+    private record Template(String[] literals, String[] names) {
+    }
+
+    /**
+     * Sets the source of the variables that are not set by a command.
+     *
+     * @param source The source, or null to use only the variables set by commands.
+     */
+    public void setSource(VariableSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Returns the source of the variables that are not set by a command.
+     *
+     * @return The source, or null if it is not set.
+     */
+    public VariableSource getSource() {
+        return source;
+    }
+
+    /**
+     * Opens the block scope of a command on the current thread.
+     *
+     * @return The scope, which has to be closed when the command ends.
+     */
+    public VariableScope openScope() {
+        return VariableScope.open(this);
+    }
+
+    /**
+     * Splits the given argument into its segments ahead of time, e.g. when a line is prepared.
+     *
+     * @param argument The argument.
+     */
+    public void compile(String argument) {
+        if (argument.contains("${")) {
+            template(argument);
+        }
+    }
+
+    /**
+     * Expands the references in the given argument.
+     *
+     * @param argument The argument.
+     * @param scope    The scope to look up the variables in.
+     * @return The expanded argument.
+     */
+    public String expand(String argument, VariableScope scope) {
+        if (!argument.contains("${")) {
+            return argument;
+        }
+        Template template = template(argument);
+        if (template.names().length == 0) {
+            return template.literals()[0];
+        }
+        StringBuilder sb = new StringBuilder(argument.length());
+        for (int i = 0; i < template.names().length; i++) {
+            String value = scope.get(template.names()[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("Undefined variable: " + template.names()[i]);
+            }
+            sb.append(template.literals()[i]).append(value);
+        }
+        return sb.append(template.literals()[template.names().length]).toString();
+    }
+
+    /**
+     * Returns the names of the variables referenced in the given argument.
+     *
+     * @param argument The argument.
+     * @return The names in the order they are referenced, which may repeat.
+     */
+    public List<String> references(String argument) {
+        if (!argument.contains("${")) {
+            return List.of();
+        }
+        return List.of(template(argument).names());
+    }
+
+    List<String> expand(List<String> args, VariableScope scope) {
+        return args.isEmpty() ? args : new ExpandedArguments(args, scope);
+    }
+
+    private Template template(String argument) {
+        Template template = templates.get(argument);
+        if (template == null) {
+            if (templates.size() >= MAX_TEMPLATES) {
+                // the cache only saves scanning, so it is simply started over
+                templates.clear();
+            }
+            template = compileTemplate(argument);
+            templates.put(argument, template);
+        }
+        return template;
+    }
+
+    private static Template compileTemplate(String argument) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < argument.length()) {
+            int start = argument.indexOf("${", i);
+            if (start < 0) {
+                break;
+            }
+            if (start > i && argument.charAt(start - 1) == '$') {
+                // $${ is a literal ${
+                literal.append(argument, i, start - 1).append("${");
+                i = start + 2;
+                continue;
+            }
+            int end = argument.indexOf('}', start + 2);
+            if (end < 0) {
+                break;
+            }
+            literal.append(argument, i, start);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            names.add(argument.substring(start + 2, end));
+            i = end + 1;
+        }
+        literal.append(argument, i, argument.length());
+        literals.add(literal.toString());
+        return new Template(literals.toArray(new String[0]), names.toArray(new String[0]));
+    }
+
+    private final class ExpandedArguments extends AbstractList<String> implements RandomAccess {
+        private final List<String> args;
+        private final VariableScope scope;
+        private final String[] expanded;
+
+        ExpandedArguments(List<String> args, VariableScope scope) {
+            this.args = args;
+            this.scope = scope;
+            this.expanded = new String[args.size()];
+        }
+
+        @Override
+        public String get(int index) {
+            String argument = expanded[index];
+            if (argument == null) {
+                argument = expand(args.get(index), scope);
+                expanded[index] = argument;
+            }
+            return argument;
+        }
+
+        @Override
+        public int size() {
+            return expanded.length;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.jvcats.cli;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandEventsTest {
+    private Path file;
+    private CommandParser parser;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("events", ".jfr");
+        parser = new CommandParser(new ParserConfig() {
+            @Override
+            public char endOfStatement() {
+                return ';';
+            }
+        });
+        parser.register("a", args -> {
+        });
+        parser.register("b", "x", args -> {
+            throw new IllegalStateException("Failed");
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void resolveCountsTheStatementsOfTheLine() throws Exception {
+        List<RecordedEvent> events = record("com.jvcats.cli.Resolve");
+        assertEquals(1, events.size());
+        assertEquals("a", events.getFirst().getString("command"));
+        assertEquals(2, events.getFirst().getInt("statements"));
+        assertEquals(6, events.getFirst().getInt("tokens"));
+    }
+
+    @Test
+    public void buildCountsTheOptionsAndArgumentsOfEachCommand() throws Exception {
+        List<RecordedEvent> events = record("com.jvcats.cli.Build");
+        events.sort((e1, e2) -> e1.getString("command").compareTo(e2.getString("command")));
+        assertEquals(2, events.size());
+        assertEquals("a", events.get(0).getString("command"));
+        assertEquals(1, events.get(0).getInt("options"));
+        assertEquals(2, events.get(0).getInt("arguments"));
+        assertEquals("b", events.get(1).getString("command"));
+        assertEquals(1, events.get(1).getInt("options"));
+        assertEquals(1, events.get(1).getInt("arguments"));
+    }
+
+    @Test
+    public void executeRecordsEachTaskAndWhetherItFailed() throws Exception {
+        List<RecordedEvent> events = record("com.jvcats.cli.Execute");
+        events.sort((e1, e2) -> e1.getString("command").compareTo(e2.getString("command")));
+        assertEquals(2, events.size());
+        assertEquals("a", events.get(0).getString("command"));
+        assertEquals(CommandConfig.DEFAULT_OPTION_NAME, events.get(0).getString("option"));
+        assertEquals(2, events.get(0).getInt("arguments"));
+        assertFalse(events.get(0).getBoolean("failed"));
+        assertEquals("b", events.get(1).getString("command"));
+        assertEquals("x", events.get(1).getString("option"));
+        assertEquals(1, events.get(1).getInt("arguments"));
+        assertTrue(events.get(1).getBoolean("failed"));
+    }
+
+    private List<RecordedEvent> record(String event) throws Exception {
+        try (Recording recording = new Recording()) {
+            // the thresholds are lowered so that the fast commands of the test are recorded
+            recording.enable(event).withThreshold(Duration.ZERO);
+            recording.start();
+            parser.prepare("a 1 2; b -x 3;");
+            try {
+                parser.execute();
+                fail("The statement should fail");
+            } catch (IllegalStateException e) {
+                assertEquals("Failed", e.getMessage());
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file);
+    }
+}
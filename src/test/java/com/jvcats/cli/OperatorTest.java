@@ -0,0 +1,112 @@
+package com.jvcats.cli;
+
+import com.jvcats.cli.exec.Execution;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class OperatorTest {
+    private final List<String> executed = new ArrayList<>();
+    private CommandParser parser;
+
+    @Before
+    public void setUp() {
+        parser = new CommandParser(new ParserConfig() {
+            @Override
+            public char endOfStatement() {
+                return ';';
+            }
+
+            @Override
+            public String blockChars() {
+                return "{}";
+            }
+
+            @Override
+            public String andOperator() {
+                return "&&";
+            }
+
+            @Override
+            public String orOperator() {
+                return "||";
+            }
+        });
+        for (String name : List.of("ok", "b", "c")) {
+            parser.register(name, args -> executed.add(name));
+        }
+        parser.register("fail", args -> {
+            executed.add("fail");
+            throw new IllegalStateException("Failed");
+        });
+    }
+
+    @Test
+    public void orAfterTheBlockOfAFailedStatement() throws Exception {
+        execute("fail { c; } || b;");
+        assertEquals(List.of("fail", "b"), executed);
+    }
+
+    @Test
+    public void orAfterTheBlockOfAFailedStatementEndedByADelimiter() throws Exception {
+        execute("fail { c; }; || b;");
+        assertEquals(List.of("fail", "b"), executed);
+    }
+
+    @Test
+    public void andAfterTheBlockOfASucceededStatement() throws Exception {
+        execute("ok { c; } && b;");
+        assertEquals(List.of("ok", "c", "b"), executed);
+    }
+
+    @Test
+    public void orAfterABlockThatFailed() throws Exception {
+        // the block belongs to its statement, so the statement fails with it
+        execute("ok { fail; } || b;");
+        assertEquals(List.of("ok", "fail", "b"), executed);
+    }
+
+    @Test
+    public void orAfterABlockThatSucceeded() throws Exception {
+        execute("ok { c; } || b;");
+        assertEquals(List.of("ok", "c"), executed);
+    }
+
+    @Test
+    public void andAfterTheBlockOfAFailedStatement() throws Exception {
+        parser.prepare("fail { c; } && b;");
+        try {
+            parser.execute();
+            fail("The statement should fail");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed", e.getMessage());
+        }
+        parser.detach();
+        assertEquals(List.of("fail"), executed);
+    }
+
+    @Test
+    public void orAfterTheBlockOfAFailedStatementInAProgram() throws Exception {
+        parser.prepare("fail { c; } || b;");
+        parser.compile().execute();
+        assertEquals(List.of("fail", "b"), executed);
+    }
+
+    @Test
+    public void orAfterTheBlockOfAFailedStatementExecutedAsynchronously() throws Exception {
+        parser.prepare("fail { c; } || b;");
+        Execution execution = parser.executeAsync();
+        execution.await();
+        assertEquals(List.of("fail", "b"), executed);
+    }
+
+    private void execute(String line) throws Exception {
+        parser.prepare(line);
+        parser.execute();
+    }
+}
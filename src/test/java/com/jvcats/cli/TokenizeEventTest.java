@@ -0,0 +1,63 @@
+package com.jvcats.cli;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenizeEventTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("tokenize", ".jfr");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void countsOnlyTheStatementsOfEachLine() throws Exception {
+        Tokenizer tokenizer = new Tokenizer(new ParserConfig() {
+            @Override
+            public char endOfStatement() {
+                return ';';
+            }
+        });
+        List<List<String>> statements = new ArrayList<>();
+        List<String> remaining = new ArrayList<>();
+        try (Recording recording = new Recording()) {
+            recording.enable("com.jvcats.cli.Tokenize").withThreshold(Duration.ZERO);
+            recording.start();
+            tokenizer.tokenize("a 1; b 2 3;", 1, statements, remaining);
+            // the statement is completed by the next line, which starts with a delimiter to begin a new token
+            tokenizer.tokenize("c", 2, statements, remaining);
+            tokenizer.tokenize(" 4; d;", 3, statements, remaining);
+            recording.stop();
+            recording.dump(file);
+        }
+        assertEquals(4, statements.size());
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        events.sort((e1, e2) -> Integer.compare(e1.getInt("line"), e2.getInt("line")));
+        assertEquals(3, events.size());
+        assertEquals(2, events.get(0).getInt("statements"));
+        assertEquals(5, events.get(0).getInt("tokens"));
+        assertEquals(0, events.get(1).getInt("statements"));
+        assertEquals(0, events.get(1).getInt("tokens"));
+        assertEquals(2, events.get(2).getInt("statements"));
+        assertEquals(3, events.get(2).getInt("tokens"));
+    }
+}
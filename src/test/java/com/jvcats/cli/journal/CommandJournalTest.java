@@ -0,0 +1,209 @@
+package com.jvcats.cli.journal;
+
+import com.jvcats.cli.CommandConfig;
+import com.jvcats.cli.CommandParser;
+import com.jvcats.cli.ParserConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CommandJournalTest {
+    private Path directory;
+    // set by the test thread and read by the committer of the journal
+    private volatile boolean failNextWrite;
+    private final List<String> executed = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void replaysTheRecordsAfterAPartialWrite() throws Exception {
+        appendAroundPartialWrite(new JournalConfig() {
+        });
+        assertEquals(1, segmentCount());
+        assertEquals(2, replay());
+        assertEquals(List.of("1", "3"), executed);
+    }
+
+    @Test
+    public void replaysTheRecordsAfterAPartialWriteInAnEarlierSegment() throws Exception {
+        // every batch starts a new segment, so the failed write is not in the last one if it is kept
+        appendAroundPartialWrite(new JournalConfig() {
+            @Override
+            public long segmentSize() {
+                return 1;
+            }
+        });
+        try (CommandJournal journal = new CommandJournal(directory)) {
+            journal.appendStatement("x", List.of(CommandConfig.DEFAULT_OPTION_NAME), List.of(List.of("4")), null);
+        }
+        assertEquals(3, replay());
+        assertEquals(List.of("1", "3", "4"), executed);
+    }
+
+    private void appendAroundPartialWrite(JournalConfig config) throws IOException {
+        try (CommandJournal journal = new CommandJournal(directory, config, FailingChannel::new)) {
+            append(journal, "1");
+            failNextWrite = true;
+            try {
+                append(journal, "2");
+                fail("The write should fail");
+            } catch (IOException e) {
+                assertEquals("Simulated partial write", e.getMessage());
+            }
+            append(journal, "3");
+        }
+    }
+
+    private static void append(CommandJournal journal, String argument) throws IOException {
+        journal.appendStatement("x", List.of(CommandConfig.DEFAULT_OPTION_NAME), List.of(List.of(argument)), null);
+    }
+
+    private int replay() throws Exception {
+        CommandParser parser = new CommandParser(new ParserConfig() {
+        });
+        parser.register("x", executed::addAll);
+        try (CommandJournal journal = new CommandJournal(directory)) {
+            return journal.replay(parser);
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).count();
+        }
+    }
+
+    /**
+     * A segment channel that writes half of the next write and then fails, as a full disk or an I/O error would.
+     */
+    private final class FailingChannel extends FileChannel {
+        private final FileChannel channel;
+
+        private FailingChannel(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            if (failNextWrite) {
+                failNextWrite = false;
+                ByteBuffer first = srcs[offset];
+                channel.write(first.slice(first.position(), first.remaining() / 2));
+                throw new IOException("Simulated partial write");
+            }
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}